@@ -0,0 +1,151 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+public class Banco {
+    private static final String[] ETAPAS = {
+        "encuentraFilas", "encuentraColumnas", "valorCarácter", "encontrar"
+    };
+    private static final long MILISEGUNDOS_CALENTAMIENTO = 2000;
+    private static final long MILISEGUNDOS_MEDICIÓN = 1000;
+    private static final int MEDICIONES = 5;
+
+    private DatosOCR datosOCR;
+    private List<byte[]> imágenes;
+    private long tiempo;
+    private int sumidero;
+    private boolean seguimiento;
+
+    Banco(DatosOCR datosOCR, List<byte[]> imágenes) {
+        this.datosOCR = datosOCR;
+        this.imágenes = imágenes;
+    }
+
+    private void ejecutar(int etapa, byte[] imagen) {
+        switch (etapa) {
+        case 0:
+            sumidero += datosOCR.encuentraFilas() == null ? 0 : 1;
+            break;
+        case 1:
+            sumidero += datosOCR.encuentraColumnas() == null ? 0 : 1;
+            break;
+        case 2:
+            datosOCR.invalidarCeldas();
+            for (int fila = 0; fila < datosOCR.getFilas().length; fila++)
+                for (int columna = 0;
+                     columna < datosOCR.getColumnas().length;
+                     columna++)
+                    if (datosOCR.esCarácterSignificativo(columna, fila))
+                        sumidero += datosOCR.valorCarácter(columna, fila);
+            break;
+        default:
+            sumidero += datosOCR.encontrar(imagen) ? 1 : 0;
+        }
+    }
+
+    private long repetir(int etapa, long milisegundos) {
+        long operaciones = 0;
+        long fin = System.nanoTime() + milisegundos * 1000000;
+        while (System.nanoTime() < fin)
+            for (byte[] imagen : imágenes) {
+                datosOCR.encontrar(imagen);
+                if (!seguimiento)
+                    datosOCR.reiniciar();
+                long inicio = System.nanoTime();
+                ejecutar(etapa, imagen);
+                tiempo += System.nanoTime() - inicio;
+                operaciones++;
+            }
+        return operaciones;
+    }
+
+    private void medir(int etapa, boolean seguimiento) {
+        this.seguimiento = seguimiento;
+        repetir(etapa, MILISEGUNDOS_CALENTAMIENTO);
+        double mejor = Double.MAX_VALUE;
+        double total = 0;
+        for (int i = 0; i < MEDICIONES; i++) {
+            tiempo = 0;
+            long operaciones = repetir(etapa, MILISEGUNDOS_MEDICIÓN);
+            double nanosegundos = (double) tiempo / operaciones;
+            mejor = Math.min(mejor, nanosegundos);
+            total += nanosegundos;
+        }
+        System.out.printf("%-20s %-11s %12.0f ns/op (mejor %.0f)%n",
+                          ETAPAS[etapa],
+                          seguimiento ? "seguimiento" : "búsqueda",
+                          total / MEDICIONES, mejor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        File plantillas = new File(args.length > 0 ? args[0]
+                                                   : "res/drawable");
+        List<String> archivos = new ArrayList<String>();
+        for (int i = 1; i < args.length; i++)
+            archivos.add(args[i]);
+        if (archivos.isEmpty())
+            for (int i = 1; i <= 4; i++)
+                archivos.add("assets/captura" + i + ".jpg");
+
+        DatosOCR datosOCR = new DatosOCR();
+        Escritorio.cargarPlantillas(datosOCR, plantillas);
+        Escritorio.configurarPerfiles(datosOCR);
+        List<byte[]> imágenes = new ArrayList<byte[]>();
+        int ancho = 0;
+        int alto = 0;
+        for (String archivo : archivos) {
+            BufferedImage imagen = ImageIO.read(new File(archivo));
+            if (imagen == null)
+                throw new IOException("No se puede leer " + archivo);
+            if (imágenes.isEmpty()) {
+                ancho = imagen.getWidth();
+                alto = imagen.getHeight();
+                Escritorio.setTamañoImagen(datosOCR, ancho, alto);
+            } else if (imagen.getWidth() != ancho
+                       || imagen.getHeight() != alto)
+                throw new IOException(archivo + " no mide " + ancho + "x"
+                                      + alto);
+            byte[] píxeles = Escritorio.luminancia(imagen);
+            datosOCR.reiniciar();
+            datosOCR.encontrar(píxeles);
+            if (datosOCR.getColumnas() != null)
+                imágenes.add(píxeles);
+            else
+                System.err.println(archivo + ": no se localizan los "
+                                   + "caracteres, se omite");
+        }
+        if (imágenes.isEmpty()) {
+            System.err.println("No se localizan los caracteres en ninguna "
+                               + "imagen");
+            System.exit(1);
+        }
+
+        Banco banco = new Banco(datosOCR, imágenes);
+        for (int etapa = 0; etapa < ETAPAS.length; etapa++) {
+            banco.medir(etapa, false);
+            banco.medir(etapa, true);
+        }
+        datosOCR.liberar();
+    }
+}
@@ -0,0 +1,113 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+class Escritorio {
+    private static final int ANCHO_MÍNIMO = 640;
+    private static final int ALTO_MÍNIMO = 480;
+    private static final String PERFILES_VECTORIALES =
+        "jpf.android.magiadni.PerfilesVectoriales";
+
+    public static final String CARACTERES =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ<";
+
+    private static String nombrePlantilla(char carácter) {
+        return "char_"
+               + (carácter == '<'
+                      ? "lt"
+                      : Character.toString(Character.toLowerCase(carácter)))
+               + ".gif";
+    }
+
+    public static void cargarPlantillas(DatosOCR datosOCR, File directorio)
+        throws IOException {
+        if (directorio.isFile()) {
+            FileInputStream entrada = new FileInputStream(directorio);
+            try {
+                datosOCR.cargarPlantillas(entrada);
+            } finally {
+                entrada.close();
+            }
+            return;
+        }
+        for (int i = 0; i < CARACTERES.length(); i++) {
+            char carácter = CARACTERES.charAt(i);
+            File archivo = new File(directorio, nombrePlantilla(carácter));
+            BufferedImage imagen = ImageIO.read(archivo);
+            if (imagen == null)
+                throw new IOException("No se puede leer " + archivo);
+            boolean[][] plantilla = new boolean[imagen.getWidth()][];
+            for (int x = 0; x < plantilla.length; x++) {
+                plantilla[x] = new boolean[imagen.getHeight()];
+                for (int y = 0; y < plantilla[x].length; y++)
+                    plantilla[x][y] = imagen.getRGB(x, y) == 0xff000000;
+            }
+            datosOCR.cargarPlantilla(carácter, plantilla);
+        }
+    }
+
+    public static byte[] luminancia(BufferedImage imagen) {
+        int ancho = imagen.getWidth();
+        int alto = imagen.getHeight();
+        byte[] píxeles = new byte[ancho * alto * 3 / 2];
+        for (int y = 0; y < alto; y++)
+            for (int x = 0; x < ancho; x++) {
+                int rgb = imagen.getRGB(x, y);
+                píxeles[x + ancho * y] = (byte)
+                    ((299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff)
+                      + 114 * (rgb & 0xff)) / 1000);
+            }
+        return píxeles;
+    }
+
+    public static byte[] luminancia(File archivo) throws IOException {
+        BufferedImage imagen = ImageIO.read(archivo);
+        if (imagen == null)
+            throw new IOException("No se puede leer " + archivo);
+        return luminancia(imagen);
+    }
+
+    public static String nombreFormato(int formato) {
+        if (formato == DatosOCR.FORMATO_DNI)
+            return "DNI";
+        if (formato == DatosOCR.FORMATO_DNIE)
+            return "DNIe";
+        return "-";
+    }
+
+    public static void configurarPerfiles(DatosOCR datosOCR) {
+        try {
+            datosOCR.setPerfiles((Perfiles) Class.forName(PERFILES_VECTORIALES)
+                                                  .getDeclaredConstructor()
+                                                  .newInstance());
+        } catch (Exception e) {
+        } catch (LinkageError e) {
+        }
+    }
+
+    public static void setTamañoImagen(DatosOCR datosOCR,
+                                       int ancho, int alto) {
+        datosOCR.setTamañoImagen(ancho, alto, Math.min(ancho, ANCHO_MÍNIMO),
+                                 Math.min(alto, ALTO_MÍNIMO) / 3);
+    }
+}
@@ -0,0 +1,213 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+public class Lote implements Runnable {
+    private static final int FOTOGRAMAS_BLOQUE = 250;
+
+    private File plantillas = new File("res/drawable");
+    private int hilos = 1;
+    private File[] archivos;
+    private FileChannel canal;
+    private int ancho;
+    private int alto;
+    private int tamañoImagen;
+    private long imágenes;
+    private int tamañoBloque = 1;
+    private AtomicLong siguiente = new AtomicLong();
+    private Map<Long, String> bloquesPendientes = new HashMap<Long, String>();
+    private long bloqueImpreso;
+    private AtomicInteger procesadas = new AtomicInteger();
+    private AtomicInteger encontradas = new AtomicInteger();
+    private AtomicInteger errores = new AtomicInteger();
+
+    private static void uso() {
+        System.err.println(
+            "Uso: Lote [-h HILOS] [-p PLANTILLAS] DIRECTORIO\n"
+            + "     Lote [-h HILOS] [-p PLANTILLAS] [-b FOTOGRAMAS] "
+            + "-nv21|-y8 ANCHO ALTO ARCHIVO");
+        System.exit(2);
+    }
+
+    private static void anotar(StringBuilder salida, String nombre,
+                               boolean encontrado, DatosOCR datosOCR) {
+        salida.append(nombre).append('\t').append(encontrado ? "sí" : "no")
+              .append('\t')
+              .append(Escritorio.nombreFormato(datosOCR.getFormato()))
+              .append('\t').append(datosOCR.getDígito())
+              .append(System.getProperty("line.separator"));
+    }
+
+    private synchronized void imprimir(long bloque, String salida) {
+        bloquesPendientes.put(bloque, salida);
+        while ((salida = bloquesPendientes.remove(bloqueImpreso)) != null) {
+            System.out.print(salida);
+            bloqueImpreso++;
+        }
+    }
+
+    private boolean leer(long imagen, byte[] píxeles) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(píxeles);
+        long posición = imagen * tamañoImagen;
+        while (buffer.hasRemaining()) {
+            int leídos = canal.read(buffer, posición + buffer.position());
+            if (leídos < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void trabajar() throws IOException {
+        DatosOCR datosOCR = new DatosOCR(1);
+        Escritorio.cargarPlantillas(datosOCR, plantillas);
+        Escritorio.configurarPerfiles(datosOCR);
+        byte[] píxeles = null;
+        if (canal != null) {
+            píxeles = new byte[ancho * alto];
+            Escritorio.setTamañoImagen(datosOCR, ancho, alto);
+        }
+        StringBuilder salida = new StringBuilder();
+        for (long bloque = siguiente.getAndIncrement();
+             bloque * tamañoBloque < imágenes;
+             bloque = siguiente.getAndIncrement()) {
+            salida.setLength(0);
+            try {
+                procesarBloque(datosOCR, bloque, píxeles, salida);
+            } finally {
+                imprimir(bloque, salida.toString());
+            }
+        }
+        datosOCR.liberar();
+    }
+
+    private void procesarBloque(DatosOCR datosOCR, long bloque,
+                                byte[] píxeles, StringBuilder salida)
+        throws IOException {
+        long fin = Math.min(imágenes, (bloque + 1) * tamañoBloque);
+        datosOCR.reiniciar();
+        for (long i = bloque * tamañoBloque; i < fin; i++) {
+            String nombre;
+            if (canal == null) {
+                nombre = archivos[(int) i].getName();
+                BufferedImage imagen = ImageIO.read(archivos[(int) i]);
+                if (imagen == null) {
+                    errores.incrementAndGet();
+                    System.err.println(nombre + ": no se puede leer");
+                    continue;
+                }
+                if (imagen.getWidth() != datosOCR.getAnchoImagen()
+                    || imagen.getHeight() != datosOCR.getAltoImagen())
+                    Escritorio.setTamañoImagen(datosOCR, imagen.getWidth(),
+                                               imagen.getHeight());
+                píxeles = Escritorio.luminancia(imagen);
+            } else {
+                nombre = Long.toString(i);
+                if (!leer(i, píxeles))
+                    break;
+            }
+            boolean encontrado = datosOCR.encontrar(píxeles);
+            procesadas.incrementAndGet();
+            if (encontrado)
+                encontradas.incrementAndGet();
+            anotar(salida, nombre, encontrado, datosOCR);
+        }
+    }
+
+    public void run() {
+        try {
+            trabajar();
+        } catch (IOException e) {
+            errores.incrementAndGet();
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void procesar() throws InterruptedException {
+        Thread[] trabajadores = new Thread[hilos];
+        long inicio = System.nanoTime();
+        for (int i = 0; i < trabajadores.length; i++) {
+            trabajadores[i] = new Thread(this, "Lote-" + i);
+            trabajadores[i].start();
+        }
+        for (Thread trabajador : trabajadores)
+            trabajador.join();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.err.printf("%d imágenes, %d reconocidas, %d errores, "
+                          + "%.2f s, %.1f imágenes/s, %d hilos%n",
+                          procesadas.get(), encontradas.get(),
+                          errores.get(), segundos,
+                          procesadas.get() / segundos, hilos);
+    }
+
+    public static void main(String[] args)
+        throws IOException, InterruptedException {
+        Lote lote = new Lote();
+        int i = 0;
+        boolean crudo = false;
+        boolean nv21 = false;
+        int bloque = FOTOGRAMAS_BLOQUE;
+        for (; i < args.length && args[i].startsWith("-"); i++)
+            if (args[i].equals("-h") && i + 1 < args.length)
+                lote.hilos = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-p") && i + 1 < args.length)
+                lote.plantillas = new File(args[++i]);
+            else if (args[i].equals("-b") && i + 1 < args.length)
+                bloque = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-nv21"))
+                crudo = nv21 = true;
+            else if (args[i].equals("-y8"))
+                crudo = true;
+            else
+                uso();
+        if (!crudo) {
+            if (i != args.length - 1)
+                uso();
+            lote.archivos = new File(args[i]).listFiles();
+            if (lote.archivos == null)
+                uso();
+            Arrays.sort(lote.archivos);
+            lote.imágenes = lote.archivos.length;
+        } else {
+            if (i != args.length - 3)
+                uso();
+            lote.ancho = Integer.parseInt(args[i]);
+            lote.alto = Integer.parseInt(args[i + 1]);
+            lote.tamañoImagen = nv21
+                                    ? lote.ancho * lote.alto * 3 / 2
+                                    : lote.ancho * lote.alto;
+            lote.tamañoBloque = bloque;
+            lote.canal = new FileInputStream(args[i + 2]).getChannel();
+            lote.imágenes = lote.canal.size() / lote.tamañoImagen;
+        }
+        lote.procesar();
+        if (lote.canal != null)
+            lote.canal.close();
+    }
+}
@@ -0,0 +1,48 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class PaquetePlantillas {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 2) {
+            System.err.println(
+                "Uso: PaquetePlantillas [DIRECTORIO [ARCHIVO]]");
+            System.exit(2);
+        }
+        File directorio = new File(args.length > 0 ? args[0]
+                                                   : "res/drawable");
+        File archivo = new File(args.length > 1 ? args[1]
+                                                : "res/raw/plantillas.bin");
+        DatosOCR datosOCR = new DatosOCR(1);
+        Escritorio.cargarPlantillas(datosOCR, directorio);
+        File padre = archivo.getParentFile();
+        if (padre != null)
+            padre.mkdirs();
+        FileOutputStream salida = new FileOutputStream(archivo);
+        try {
+            datosOCR.guardarPlantillas(salida);
+        } finally {
+            salida.close();
+        }
+        datosOCR.liberar();
+        System.err.println(archivo + ": " + archivo.length() + " bytes");
+    }
+}
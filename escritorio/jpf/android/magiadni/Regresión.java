@@ -0,0 +1,135 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package jpf.android.magiadni;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+public class Regresión {
+    private static final int FOTOGRAMAS = 400;
+    private static final int DESPLAZAMIENTO_X = 30;
+    private static final int DESPLAZAMIENTO_Y = 10;
+    private static final int MANCHAS = 20;
+    private static final long SEMILLA = 11;
+
+    private static void uso() {
+        System.err.println(
+            "Uso: Regresión [-p PLANTILLAS] [-f FOTOGRAMAS] [-m MANCHAS] "
+            + "[CAPTURA...]");
+        System.exit(2);
+    }
+
+    private static int limitar(int valor, int mínimo, int máximo) {
+        return Math.max(mínimo, Math.min(máximo, valor));
+    }
+
+    private static byte[] fotograma(byte[] original, int ancho, int alto,
+                                    int manchas, Random aleatorio) {
+        int dx = aleatorio.nextInt(2 * DESPLAZAMIENTO_X + 1)
+                 - DESPLAZAMIENTO_X;
+        int dy = aleatorio.nextInt(2 * DESPLAZAMIENTO_Y + 1)
+                 - DESPLAZAMIENTO_Y;
+        int contraste = 70 + aleatorio.nextInt(60);
+        int brillo = aleatorio.nextInt(31) - 15;
+        byte[] píxeles = new byte[original.length];
+        for (int y = 0; y < alto; y++) {
+            int origenY = limitar(y + dy, 0, alto - 1);
+            for (int x = 0; x < ancho; x++) {
+                int origenX = limitar(x + dx, 0, ancho - 1);
+                int valor = original[origenX + ancho * origenY] & 0xff;
+                píxeles[x + ancho * y] = (byte)
+                    limitar(128 + (valor - 128) * contraste / 100 + brillo,
+                            0, 255);
+            }
+        }
+        for (int i = 0; i < manchas; i++) {
+            int anchoMancha = 2 + aleatorio.nextInt(6);
+            int altoMancha = 2 + aleatorio.nextInt(8);
+            int x0 = aleatorio.nextInt(ancho - anchoMancha);
+            int y0 = alto / 3 + aleatorio.nextInt(alto / 3);
+            byte valor = (byte) aleatorio.nextInt(256);
+            for (int y = y0; y < y0 + altoMancha; y++)
+                for (int x = x0; x < x0 + anchoMancha; x++)
+                    píxeles[x + ancho * y] = valor;
+        }
+        return píxeles;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File plantillas = new File("res/drawable");
+        int fotogramas = FOTOGRAMAS;
+        int manchas = MANCHAS;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++)
+            if (args[i].equals("-p") && i + 1 < args.length)
+                plantillas = new File(args[++i]);
+            else if (args[i].equals("-f") && i + 1 < args.length)
+                fotogramas = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-m") && i + 1 < args.length)
+                manchas = Integer.parseInt(args[++i]);
+            else
+                uso();
+        List<String> archivos = new ArrayList<String>();
+        for (; i < args.length; i++)
+            archivos.add(args[i]);
+        if (archivos.isEmpty())
+            for (int j = 1; j <= 4; j++)
+                archivos.add("assets/captura" + j + ".jpg");
+
+        DatosOCR datosOCR = new DatosOCR(1);
+        Escritorio.cargarPlantillas(datosOCR, plantillas);
+        Escritorio.configurarPerfiles(datosOCR);
+        Random aleatorio = new Random(SEMILLA);
+        int incorrectas = 0;
+        for (String archivo : archivos) {
+            BufferedImage imagen = ImageIO.read(new File(archivo));
+            if (imagen == null)
+                throw new IOException("No se puede leer " + archivo);
+            int ancho = imagen.getWidth();
+            int alto = imagen.getHeight();
+            byte[] original = Escritorio.luminancia(imagen);
+            Escritorio.setTamañoImagen(datosOCR, ancho, alto);
+            datosOCR.reiniciar();
+            if (!datosOCR.encontrar(original)) {
+                System.err.println(archivo + ": no se lee, se omite");
+                continue;
+            }
+            char esperado = datosOCR.getDígito();
+            datosOCR.reiniciar();
+            int leídas = 0;
+            int erróneas = 0;
+            for (int j = 0; j < fotogramas; j++)
+                if (datosOCR.encontrar(fotograma(original, ancho, alto,
+                                                 manchas, aleatorio))) {
+                    leídas++;
+                    if (datosOCR.getDígito() != esperado)
+                        erróneas++;
+                }
+            System.out.println(archivo + "\t" + esperado + "\t" + fotogramas
+                               + " fotogramas\t" + leídas + " leídos\t"
+                               + erróneas + " erróneos");
+            incorrectas += erróneas;
+        }
+        datosOCR.liberar();
+        if (incorrectas > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,99 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.io.File;
+import java.io.IOException;
+
+public class Reproducción {
+    private static void uso() {
+        System.err.println(
+            "Uso: Reproducción [-p PLANTILLAS] [-t] GRABACIÓN");
+        System.exit(2);
+    }
+
+    private static void esperar(long nanosegundos)
+        throws InterruptedException {
+        if (nanosegundos > 0)
+            Thread.sleep(nanosegundos / 1000000,
+                         (int) (nanosegundos % 1000000));
+    }
+
+    private static void imprimirMétricas(Métricas métricas) {
+        for (int etapa = 0; etapa < Métricas.ETAPAS; etapa++) {
+            long cuenta = métricas.getCuenta(etapa);
+            if (cuenta == 0)
+                continue;
+            System.err.printf("%-12s %6d media %7d us  p50 %7d us  "
+                              + "p95 %7d us  máx %7d us%n",
+                              Métricas.NOMBRES_ETAPAS[etapa], cuenta,
+                              métricas.getTotal(etapa) / cuenta / 1000,
+                              métricas.getPercentil(etapa, 50) / 1000,
+                              métricas.getPercentil(etapa, 95) / 1000,
+                              métricas.getMáximo(etapa) / 1000);
+        }
+    }
+
+    public static void main(String[] args)
+        throws IOException, InterruptedException {
+        File plantillas = new File("res/drawable");
+        boolean tiempoOriginal = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++)
+            if (args[i].equals("-p") && i + 1 < args.length)
+                plantillas = new File(args[++i]);
+            else if (args[i].equals("-t"))
+                tiempoOriginal = true;
+            else
+                uso();
+        if (i != args.length - 1)
+            uso();
+        Reproductor reproductor = new Reproductor(new File(args[i]));
+        DatosOCR datosOCR = new DatosOCR();
+        Escritorio.cargarPlantillas(datosOCR, plantillas);
+        Escritorio.configurarPerfiles(datosOCR);
+        reproductor.configurar(datosOCR);
+        int encontradas = 0;
+        long primero = 0;
+        long inicio = System.nanoTime();
+        for (int fotograma = 0; reproductor.siguiente(); fotograma++) {
+            if (fotograma == 0)
+                primero = reproductor.getTiempo();
+            else if (tiempoOriginal)
+                esperar(reproductor.getTiempo() - primero
+                        - (System.nanoTime() - inicio));
+            boolean encontrado = datosOCR.encontrar(reproductor.getLuminancia());
+            if (encontrado)
+                encontradas++;
+            System.out.println(fotograma + "\t" + (encontrado ? "sí" : "no")
+                               + "\t"
+                               + Escritorio.nombreFormato(
+                                     datosOCR.getFormato())
+                               + "\t" + datosOCR.getDígito()
+                               + "\t" + datosOCR.getEnfoque()
+                               + "\t" + datosOCR.getContraste());
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.err.printf("%d fotogramas %dx%d, %d reconocidos, %.2f s, "
+                          + "%.1f fotogramas/s%n",
+                          reproductor.getFotogramas(), reproductor.getAncho(),
+                          reproductor.getAlto(), encontradas, segundos,
+                          reproductor.getFotogramas() / segundos);
+        imprimirMétricas(datosOCR.getMétricas());
+        datosOCR.liberar();
+    }
+}
@@ -0,0 +1,256 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+package jpf.android.magiadni;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+public class Servicio {
+    private File plantillas = new File("res/drawable");
+    private int hilos = Runtime.getRuntime().availableProcessors();
+    private int capacidadCola = 16;
+    private BlockingQueue<DatosOCR> libres;
+    private ThreadPoolExecutor ejecutor;
+    private AtomicInteger colaMáxima = new AtomicInteger();
+    private AtomicLong esperas = new AtomicLong();
+    private AtomicLong procesadas = new AtomicLong();
+    private AtomicLong reconocidas = new AtomicLong();
+    private AtomicLong errores = new AtomicLong();
+    private AtomicLong nanosegundos = new AtomicLong();
+
+    private static void uso() {
+        System.err.println(
+            "Uso: Servicio [-h HILOS] [-c COLA] [-p PLANTILLAS]\n"
+            + "Órdenes por la entrada estándar, una por línea:\n"
+            + "     imagen ID ARCHIVO\n"
+            + "     y8|nv21 ID ANCHO ALTO ARCHIVO\n"
+            + "     métricas");
+        System.exit(2);
+    }
+
+    private synchronized void responder(String línea) {
+        System.out.println(línea);
+        System.out.flush();
+    }
+
+    private static String campo(String valor) {
+        return valor == null ? "-" : valor;
+    }
+
+    private static byte[] leerLuminancia(File archivo, int ancho, int alto)
+        throws IOException {
+        byte[] píxeles = new byte[ancho * alto];
+        FileInputStream entrada = new FileInputStream(archivo);
+        try {
+            int leídos = 0;
+            while (leídos < píxeles.length) {
+                int n = entrada.read(píxeles, leídos,
+                                     píxeles.length - leídos);
+                if (n < 0)
+                    throw new IOException("Archivo demasiado corto: "
+                                          + archivo);
+                leídos += n;
+            }
+        } finally {
+            entrada.close();
+        }
+        return píxeles;
+    }
+
+    private void verificar(String id, File archivo, int ancho, int alto)
+        throws IOException, InterruptedException {
+        byte[] píxeles;
+        if (!archivo.isFile())
+            throw new IOException("No se puede leer " + archivo);
+        if (ancho == 0) {
+            BufferedImage imagen = ImageIO.read(archivo);
+            if (imagen == null)
+                throw new IOException("No se puede leer " + archivo);
+            ancho = imagen.getWidth();
+            alto = imagen.getHeight();
+            píxeles = Escritorio.luminancia(imagen);
+        } else
+            píxeles = leerLuminancia(archivo, ancho, alto);
+        DatosOCR datosOCR = libres.take();
+        try {
+            if (datosOCR.getAnchoImagen() != ancho
+                || datosOCR.getAltoImagen() != alto)
+                Escritorio.setTamañoImagen(datosOCR, ancho, alto);
+            datosOCR.reiniciar();
+            long inicio = System.nanoTime();
+            boolean encontrado = datosOCR.encontrar(píxeles);
+            nanosegundos.addAndGet(System.nanoTime() - inicio);
+            procesadas.incrementAndGet();
+            if (encontrado)
+                reconocidas.incrementAndGet();
+            responder(id + "\t" + (encontrado ? "sí" : "no") + "\t"
+                      + Escritorio.nombreFormato(datosOCR.getFormato())
+                      + "\t" + datosOCR.getDígito()
+                      + "\t" + campo(datosOCR.getNIF())
+                      + "\t" + datosOCR.getDígitoControlNIF()
+                      + "\t" + campo(datosOCR.getNúmeroSoporte())
+                      + "\t" + datosOCR.getDígitoControlNúmeroSoporte()
+                      + "\t" + campo(datosOCR.getFechaNacimiento())
+                      + "\t" + datosOCR.getDígitoControlFechaNacimiento()
+                      + "\t" + campo(datosOCR.getFechaCaducidad())
+                      + "\t" + datosOCR.getDígitoControlFechaCaducidad());
+        } finally {
+            libres.put(datosOCR);
+        }
+    }
+
+    private void enviar(final String id, final File archivo,
+                        final int ancho, final int alto) {
+        ejecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    verificar(id, archivo, ancho, alto);
+                } catch (IOException e) {
+                    errores.incrementAndGet();
+                    responder(id + "\terror\t" + e.getMessage());
+                } catch (RuntimeException e) {
+                    errores.incrementAndGet();
+                    responder(id + "\terror\t" + e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        int profundidad = ejecutor.getQueue().size();
+        int máxima = colaMáxima.get();
+        while (profundidad > máxima
+               && !colaMáxima.compareAndSet(máxima, profundidad))
+            máxima = colaMáxima.get();
+    }
+
+    private String métricas() {
+        long cuenta = procesadas.get();
+        return "métricas\tcola " + ejecutor.getQueue().size()
+               + "\tmáxima " + colaMáxima.get()
+               + "\tactivos " + ejecutor.getActiveCount()
+               + "\tlibres " + libres.size()
+               + "\tesperas " + esperas.get()
+               + "\tprocesadas " + cuenta
+               + "\treconocidas " + reconocidas.get()
+               + "\terrores " + errores.get()
+               + "\tmedia " + (cuenta == 0
+                                   ? 0
+                                   : nanosegundos.get() / cuenta / 1000)
+               + "us";
+    }
+
+    private void atender(String línea) {
+        String[] partes = línea.trim().split("\\s+", 2);
+        String orden = partes[0];
+        if (orden.length() == 0)
+            return;
+        if (orden.equals("métricas")) {
+            responder(métricas());
+            return;
+        }
+        String[] argumentos = partes.length > 1
+                                  ? partes[1].split("\\s+",
+                                                    orden.equals("imagen")
+                                                        ? 2
+                                                        : 4)
+                                  : new String[0];
+        String id = argumentos.length > 0 ? argumentos[0] : "-";
+        try {
+            if (orden.equals("imagen") && argumentos.length == 2)
+                enviar(id, new File(argumentos[1]), 0, 0);
+            else if ((orden.equals("y8") || orden.equals("nv21"))
+                     && argumentos.length == 4) {
+                int ancho = Integer.parseInt(argumentos[1]);
+                int alto = Integer.parseInt(argumentos[2]);
+                if (ancho <= 0 || alto <= 0)
+                    throw new NumberFormatException();
+                enviar(id, new File(argumentos[3]), ancho, alto);
+            } else {
+                errores.incrementAndGet();
+                responder(id + "\terror\tOrden no válida: " + línea);
+            }
+        } catch (NumberFormatException e) {
+            errores.incrementAndGet();
+            responder(id + "\terror\tTamaño no válido: " + línea);
+        }
+    }
+
+    private void iniciar() throws IOException {
+        libres = new ArrayBlockingQueue<DatosOCR>(hilos);
+        for (int i = 0; i < hilos; i++) {
+            DatosOCR datosOCR = new DatosOCR(1);
+            Escritorio.cargarPlantillas(datosOCR, plantillas);
+            Escritorio.configurarPerfiles(datosOCR);
+            libres.add(datosOCR);
+        }
+        ejecutor = new ThreadPoolExecutor(
+            hilos, hilos, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(capacidadCola),
+            new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable tarea,
+                                              ThreadPoolExecutor ejecutor) {
+                    esperas.incrementAndGet();
+                    try {
+                        ejecutor.getQueue().put(tarea);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+    }
+
+    private void servir() throws IOException, InterruptedException {
+        BufferedReader entrada = new BufferedReader(
+            new InputStreamReader(System.in, "UTF-8"));
+        String línea;
+        while ((línea = entrada.readLine()) != null)
+            atender(línea);
+        ejecutor.shutdown();
+        ejecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        System.err.println(métricas());
+        for (DatosOCR datosOCR : libres)
+            datosOCR.liberar();
+    }
+
+    public static void main(String[] args)
+        throws IOException, InterruptedException {
+        Servicio servicio = new Servicio();
+        for (int i = 0; i < args.length; i++)
+            if (args[i].equals("-h") && i + 1 < args.length)
+                servicio.hilos = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-c") && i + 1 < args.length)
+                servicio.capacidadCola =
+                    Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-p") && i + 1 < args.length)
+                servicio.plantillas = new File(args[++i]);
+            else
+                uso();
+        servicio.iniciar();
+        servicio.servir();
+    }
+}
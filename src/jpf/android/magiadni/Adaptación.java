@@ -0,0 +1,134 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+class Adaptación {
+    private static final int VENTANA = 30;
+    private static final long PRESUPUESTO = 1000000000L / 15;
+    private static final int PORCENTAJE_SUBIDA = 60;
+    private static final int PORCENTAJE_LOCALIZADOS_SUFICIENTE = 80;
+    private static final int PORCENTAJE_LEÍDOS_SUFICIENTE = 50;
+    private static final int VENTANAS_ESPERA = 2;
+    private static final int FALLOS_MÁXIMOS = 5;
+
+    private int[] anchos;
+    private int[] altos;
+    private int índice;
+    private int fotogramas;
+    private long total;
+    private int localizados;
+    private int leídos;
+    private int leídosAntesDeSubir;
+    private int índiceAntesDeSubir;
+    private boolean subido;
+    private int espera;
+    private int fallos;
+
+    Adaptación(int[] anchos, int[] altos, int índice) {
+        this.anchos = anchos;
+        this.altos = altos;
+        this.índice = índice;
+    }
+
+    private long área(int i) {
+        return (long) anchos[i] * altos[i];
+    }
+
+    public boolean registrar(long nanosegundos, boolean localizado,
+                             boolean leído) {
+        total += nanosegundos;
+        if (localizado)
+            localizados++;
+        if (leído)
+            leídos++;
+        if (++fotogramas < VENTANA)
+            return false;
+        int anterior = índice;
+        if (localizados > 0)
+            decidir(total / fotogramas);
+        fotogramas = 0;
+        total = 0;
+        localizados = 0;
+        leídos = 0;
+        return índice != anterior;
+    }
+
+    private void decidir(long media) {
+        if (subido) {
+            if (leídos > leídosAntesDeSubir && media <= PRESUPUESTO) {
+                subido = false;
+                fallos = 0;
+            } else if (media <= PRESUPUESTO && puedeSubir(media)) {
+                índice++;
+                return;
+            } else {
+                subido = false;
+                bajar(índiceAntesDeSubir);
+                return;
+            }
+        }
+        if (media > PRESUPUESTO && índice > 0) {
+            bajar(índice - 1);
+            return;
+        }
+        if (espera > 0) {
+            espera--;
+            return;
+        }
+        boolean localizadosSuficientes =
+            localizados * 100
+            >= fotogramas * PORCENTAJE_LOCALIZADOS_SUFICIENTE;
+        boolean leídosSuficientes =
+            leídos * 100 >= localizados * PORCENTAJE_LEÍDOS_SUFICIENTE;
+        if (localizadosSuficientes && !leídosSuficientes
+            && puedeSubir(media)) {
+            leídosAntesDeSubir = leídos;
+            índiceAntesDeSubir = índice;
+            subido = true;
+            índice++;
+        }
+    }
+
+    private boolean puedeSubir(long media) {
+        return índice < anchos.length - 1
+               && media * área(índice + 1) / área(índice) * 100
+                  < PRESUPUESTO * PORCENTAJE_SUBIDA;
+    }
+
+    private void bajar(int destino) {
+        índice = destino;
+        if (fallos < FALLOS_MÁXIMOS)
+            fallos++;
+        espera = VENTANAS_ESPERA << fallos;
+    }
+
+    public int getAncho() {
+        return anchos[índice];
+    }
+
+    public int getAlto() {
+        return altos[índice];
+    }
+
+    public static int anchoUsado(int ancho, int alto) {
+        return Math.min(ancho, alto * 4 / 3);
+    }
+
+    public static int altoUsado(int ancho, int alto) {
+        return anchoUsado(ancho, alto) / 4;
+    }
+}
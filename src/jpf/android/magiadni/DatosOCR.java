@@ -0,0 +1,1957 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class Segmento {
+    public int posición;
+    public int tamaño;
+
+    public void copiar(Segmento otro) {
+        posición = otro.posición;
+        tamaño = otro.tamaño;
+    }
+}
+
+class Colisión extends Segmento {
+    public boolean esColisión;
+}
+
+class Barrido {
+    private int[] valores;
+    private int inicio;
+    private int fin;
+    private int[] orden;
+    private int[] cuentas;
+    private long[] bits;
+    private Colisión[] colisiones;
+    private int cantidad;
+    private int índiceOrden;
+    private int umbral;
+    private int máximo;
+    private int alcance;
+
+    Barrido(int tamaño) {
+        orden = new int[tamaño];
+        cuentas = new int[257];
+        bits = new long[(tamaño + 63) / 64];
+        colisiones = new Colisión[tamaño];
+        for (int i = 0; i < colisiones.length; i++)
+            colisiones[i] = new Colisión();
+    }
+
+    public boolean iniciar(int[] valores, int inicio, int fin) {
+        this.valores = valores;
+        this.inicio = inicio;
+        this.fin = fin;
+        int mínimo = Integer.MAX_VALUE;
+        máximo = Integer.MIN_VALUE;
+        for (int i = inicio; i < fin; i++) {
+            mínimo = Math.min(mínimo, valores[i]);
+            máximo = Math.max(máximo, valores[i]);
+        }
+        if (mínimo >= máximo)
+            return false;
+        ordenar(mínimo);
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = 0;
+        for (int i = inicio; i < fin; i++)
+            bits[i >> 6] |= 1L << i;
+        umbral = mínimo;
+        índiceOrden = 0;
+        cantidad = 0;
+        alcance = -1;
+        return umbral < máximo;
+    }
+
+    private void ordenar(int mínimo) {
+        int rango = máximo - mínimo + 1;
+        if (cuentas.length < rango + 1)
+            cuentas = new int[rango + 1];
+        for (int i = 0; i <= rango; i++)
+            cuentas[i] = 0;
+        for (int i = inicio; i < fin; i++)
+            cuentas[valores[i] - mínimo + 1]++;
+        for (int i = 1; i <= rango; i++)
+            cuentas[i] += cuentas[i - 1];
+        for (int i = inicio; i < fin; i++)
+            orden[cuentas[valores[i] - mínimo]++] = i;
+    }
+
+    public boolean siguienteUmbral() {
+        do {
+            if (umbral + 1 >= máximo)
+                return false;
+            int primera = fin;
+            while (valores[orden[índiceOrden]] == umbral) {
+                int i = orden[índiceOrden++];
+                bits[i >> 6] &= ~(1L << i);
+                primera = Math.min(primera, i);
+            }
+            invalidar(primera);
+            umbral = valores[orden[índiceOrden]];
+        } while (alcance < cantidad);
+        alcance = -1;
+        return true;
+    }
+
+    private void invalidar(int posición) {
+        while (cantidad > 0
+               && colisiones[cantidad - 1].posición
+                  + colisiones[cantidad - 1].tamaño >= posición)
+            cantidad--;
+    }
+
+    private int siguienteCambio(int posición, boolean esColisión) {
+        int palabra = posición >> 6;
+        long resto = (esColisión ? ~bits[palabra] : bits[palabra])
+                     & (-1L << posición);
+        while (resto == 0) {
+            if (++palabra == bits.length)
+                return fin;
+            resto = esColisión ? ~bits[palabra] : bits[palabra];
+        }
+        return Math.min(fin,
+                        (palabra << 6) + Long.numberOfTrailingZeros(resto));
+    }
+
+    public Colisión colisión(int índice) {
+        alcance = Math.max(alcance, índice);
+        while (cantidad <= índice) {
+            int posición = cantidad == 0
+                               ? inicio
+                               : colisiones[cantidad - 1].posición
+                                 + colisiones[cantidad - 1].tamaño;
+            if (posición >= fin)
+                return null;
+            boolean esColisión = (bits[posición >> 6] & (1L << posición)) != 0;
+            colisiones[cantidad].esColisión = esColisión;
+            colisiones[cantidad].posición = posición;
+            colisiones[cantidad].tamaño =
+                siguienteCambio(posición, esColisión) - posición;
+            cantidad++;
+        }
+        return colisiones[índice];
+    }
+}
+
+class Ventana {
+    private int longitud;
+    private int índice;
+    private int mínimo;
+    private int suma;
+    private int cuadrados;
+    private int estrechos;
+    private int sumaSeparaciones;
+    private int cuadradosSeparaciones;
+    private int estrechasSeparaciones;
+
+    Ventana(int segmentos) {
+        longitud = segmentos * 2 - 1;
+        reiniciar(0);
+    }
+
+    public void reiniciar(int mínimo) {
+        this.mínimo = mínimo;
+        índice = Integer.MIN_VALUE;
+    }
+
+    public void desplazar(Barrido barrido, int índice) {
+        if (this.índice == índice - 1) {
+            int saliente = barrido.colisión(índice).tamaño;
+            int entrante = barrido.colisión(índice + longitud).tamaño;
+            int s = sumaSeparaciones + entrante;
+            int c = cuadradosSeparaciones + entrante * entrante;
+            int e = estrechasSeparaciones + (entrante < mínimo ? 1 : 0);
+            sumaSeparaciones = suma - saliente;
+            cuadradosSeparaciones = cuadrados - saliente * saliente;
+            estrechasSeparaciones = estrechos - (saliente < mínimo ? 1 : 0);
+            suma = s;
+            cuadrados = c;
+            estrechos = e;
+        } else {
+            suma = cuadrados = estrechos = 0;
+            sumaSeparaciones = cuadradosSeparaciones = 0;
+            estrechasSeparaciones = 0;
+            for (int i = 1; i <= longitud; i += 2) {
+                int tamaño = barrido.colisión(índice + i).tamaño;
+                suma += tamaño;
+                cuadrados += tamaño * tamaño;
+                if (tamaño < mínimo)
+                    estrechos++;
+            }
+            for (int i = 2; i < longitud; i += 2) {
+                int tamaño = barrido.colisión(índice + i).tamaño;
+                sumaSeparaciones += tamaño;
+                cuadradosSeparaciones += tamaño * tamaño;
+                if (tamaño < mínimo)
+                    estrechasSeparaciones++;
+            }
+        }
+        this.índice = índice;
+    }
+
+    private static boolean desviaciónMáxima(int n, int suma, int cuadrados,
+                                            int porcentaje) {
+        long sumaCuadrado = (long) suma * suma;
+        long dispersión = (long) n * n * cuadrados - n * sumaCuadrado;
+        return dispersión * 10000 <= sumaCuadrado * porcentaje * porcentaje;
+    }
+
+    public boolean desviaciónMáxima(int porcentaje) {
+        return desviaciónMáxima((longitud + 1) / 2, suma, cuadrados,
+                                porcentaje)
+               && desviaciónMáxima((longitud - 1) / 2, sumaSeparaciones,
+                                   cuadradosSeparaciones, porcentaje);
+    }
+
+    public boolean hayEstrechos() {
+        return estrechos > 0;
+    }
+}
+
+class Perfiles {
+    public int sumar(byte[] datos, int inicio, int longitud) {
+        int total = 0;
+        for (int i = inicio; i < inicio + longitud; i++)
+            total += datos[i] & 0xff;
+        return total;
+    }
+
+    public void acumularExtremos(byte[] datos, int inicio, byte[] mínimos,
+                                 byte[] máximos, int desde, int longitud) {
+        for (int i = 0; i < longitud; i++) {
+            int v = datos[inicio + i] & 0xff;
+            if (v < (mínimos[desde + i] & 0xff))
+                mínimos[desde + i] = datos[inicio + i];
+            if (v > (máximos[desde + i] & 0xff))
+                máximos[desde + i] = datos[inicio + i];
+        }
+    }
+
+    public int sumar(ByteBuffer datos, int inicio, int paso, int longitud) {
+        int total = 0;
+        for (int i = 0; i < longitud; i++)
+            total += datos.get(inicio + paso * i) & 0xff;
+        return total;
+    }
+
+    public void acumularExtremos(ByteBuffer datos, int inicio, int paso,
+                                 byte[] mínimos, byte[] máximos,
+                                 int desde, int longitud) {
+        for (int i = 0; i < longitud; i++) {
+            byte b = datos.get(inicio + paso * i);
+            int v = b & 0xff;
+            if (v < (mínimos[desde + i] & 0xff))
+                mínimos[desde + i] = b;
+            if (v > (máximos[desde + i] & 0xff))
+                máximos[desde + i] = b;
+        }
+    }
+}
+
+class Escalada {
+    public final int ancho;
+    public final int alto;
+    public final long[] bits;
+
+    Escalada(int ancho, int alto, long[] bits) {
+        this.ancho = ancho;
+        this.alto = alto;
+        this.bits = bits;
+    }
+}
+
+class Plantilla {
+    private static final int TAMAÑO_ESCALADAS = 16;
+
+    private int ancho;
+    private int alto;
+    private int palabras;
+    private long[] bits;
+    private Escalada[] escaladas;
+
+    Plantilla(boolean[][] píxeles) {
+        ancho = píxeles.length;
+        alto = píxeles[0].length;
+        palabras = palabras(ancho);
+        bits = new long[alto * palabras];
+        for (int x = 0; x < ancho; x++)
+            for (int y = 0; y < alto; y++)
+                if (píxeles[x][y])
+                    bits[y * palabras + (x >> 6)] |= 1L << x;
+        escaladas = new Escalada[TAMAÑO_ESCALADAS];
+    }
+
+    Plantilla(DataInputStream entrada) throws IOException {
+        ancho = entrada.readUnsignedShort();
+        alto = entrada.readUnsignedShort();
+        palabras = palabras(ancho);
+        bits = new long[alto * palabras];
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = entrada.readLong();
+        escaladas = new Escalada[TAMAÑO_ESCALADAS];
+    }
+
+    public void escribir(DataOutputStream salida) throws IOException {
+        salida.writeShort(ancho);
+        salida.writeShort(alto);
+        for (long palabra : bits)
+            salida.writeLong(palabra);
+    }
+
+    public static int palabras(int ancho) {
+        return (ancho + 63) >> 6;
+    }
+
+    private long[] escalar(int anchoEscalada, int altoEscalada) {
+        int palabrasEscalada = palabras(anchoEscalada);
+        long[] escalada = new long[altoEscalada * palabrasEscalada];
+        for (int y = 0; y < altoEscalada; y++) {
+            int fila = y * alto / altoEscalada * palabras;
+            for (int x = 0; x < anchoEscalada; x++) {
+                int tx = x * ancho / anchoEscalada;
+                if ((bits[fila + (tx >> 6)] & (1L << tx)) != 0)
+                    escalada[y * palabrasEscalada + (x >> 6)] |= 1L << x;
+            }
+        }
+        return escalada;
+    }
+
+    public long[] escalada(int anchoEscalada, int altoEscalada) {
+        int índice = (anchoEscalada * 31 + altoEscalada)
+                     & (TAMAÑO_ESCALADAS - 1);
+        Escalada escalada = escaladas[índice];
+        if (escalada == null || escalada.ancho != anchoEscalada
+            || escalada.alto != altoEscalada) {
+            escalada = new Escalada(anchoEscalada, altoEscalada,
+                                    escalar(anchoEscalada, altoEscalada));
+            escaladas[índice] = escalada;
+        }
+        return escalada.bits;
+    }
+}
+
+class Celda {
+    static final int CANDIDATOS = 3;
+
+    public int generación = -1;
+    public int umbral;
+    public int xInicio;
+    public int yInicio;
+    public int ancho;
+    public int alto;
+    public long[] bits = new long[0];
+    public String caracteres;
+    public char valor;
+    public int margen;
+    public char anterior = '?';
+    public char[] candidatos = new char[CANDIDATOS];
+    public int[] puntuaciones = new int[CANDIDATOS];
+    public int[] índices = new int[CANDIDATOS];
+
+    public void reiniciarCandidatos() {
+        for (int j = 0; j < CANDIDATOS; j++) {
+            candidatos[j] = '?';
+            puntuaciones[j] = 0;
+            índices[j] = -1;
+        }
+    }
+
+    public int límiteCandidato(int índice) {
+        int último = CANDIDATOS - 1;
+        return índice < índices[último]
+                   ? puntuaciones[último]
+                   : puntuaciones[último] + 1;
+    }
+
+    public void añadirCandidato(int índice, char carácter, int puntuación) {
+        int j = CANDIDATOS - 1;
+        while (j > 0
+               && (puntuación > puntuaciones[j - 1]
+                   || (puntuación == puntuaciones[j - 1]
+                       && índice < índices[j - 1]))) {
+            candidatos[j] = candidatos[j - 1];
+            puntuaciones[j] = puntuaciones[j - 1];
+            índices[j] = índices[j - 1];
+            j--;
+        }
+        candidatos[j] = carácter;
+        puntuaciones[j] = puntuación;
+        índices[j] = índice;
+    }
+}
+
+class Métricas {
+    static final int FILAS = 0;
+    static final int COLUMNAS = 1;
+    static final int FORMATO = 2;
+    static final int CARACTERES = 3;
+    static final int VALIDACIÓN = 4;
+    static final int ENCONTRAR = 5;
+    static final int DIBUJO = 6;
+    static final int ETAPAS = 7;
+
+    static final int RECIBIDOS = 0;
+    static final int DESCARTADOS = 1;
+    static final int LOCALIZADOS = 2;
+    static final int RECONOCIDOS = 3;
+    static final int ENFOQUES = 4;
+    static final int DESENFOCADOS = 5;
+    static final int CORREGIDOS = 6;
+    static final int DUPLICADOS = 7;
+    static final int OMITIDOS = 8;
+    static final int CONTADORES = 9;
+
+    static final String[] NOMBRES_ETAPAS = {
+        "filas", "columnas", "formato", "caracteres", "validación",
+        "encontrar", "dibujo"
+    };
+    static final String[] NOMBRES_CONTADORES = {
+        "recibidos", "descartados", "localizados", "reconocidos", "enfoques",
+        "desenfocados", "corregidos", "duplicados", "omitidos"
+    };
+
+    private static final int CUBETAS = 40;
+
+    private final AtomicLongArray cuentas;
+    private final AtomicLongArray totales;
+    private final AtomicLongArray máximos;
+    private final AtomicLongArray cubetas;
+    private final AtomicLongArray contadores;
+
+    Métricas() {
+        cuentas = new AtomicLongArray(ETAPAS);
+        totales = new AtomicLongArray(ETAPAS);
+        máximos = new AtomicLongArray(ETAPAS);
+        cubetas = new AtomicLongArray(ETAPAS * CUBETAS);
+        contadores = new AtomicLongArray(CONTADORES);
+    }
+
+    public long registrar(int etapa, long inicio) {
+        long ahora = System.nanoTime();
+        long nanosegundos = Math.max(1, ahora - inicio);
+        int cubeta = Math.min(CUBETAS - 1,
+                              63 - Long.numberOfLeadingZeros(nanosegundos));
+        cuentas.incrementAndGet(etapa);
+        totales.addAndGet(etapa, nanosegundos);
+        cubetas.incrementAndGet(etapa * CUBETAS + cubeta);
+        if (nanosegundos > máximos.get(etapa))
+            máximos.set(etapa, nanosegundos);
+        return ahora;
+    }
+
+    public void contar(int contador) {
+        contadores.incrementAndGet(contador);
+    }
+
+    public long getContador(int contador) {
+        return contadores.get(contador);
+    }
+
+    public long getCuenta(int etapa) {
+        return cuentas.get(etapa);
+    }
+
+    public long getTotal(int etapa) {
+        return totales.get(etapa);
+    }
+
+    public long getMáximo(int etapa) {
+        return máximos.get(etapa);
+    }
+
+    public long getPercentil(int etapa, int porcentaje) {
+        long objetivo = (cuentas.get(etapa) * porcentaje + 99) / 100;
+        long acumulado = 0;
+        for (int cubeta = 0; cubeta < CUBETAS - 1; cubeta++) {
+            acumulado += cubetas.get(etapa * CUBETAS + cubeta);
+            if (acumulado >= objetivo)
+                return Math.min(1L << (cubeta + 1), máximos.get(etapa));
+        }
+        return máximos.get(etapa);
+    }
+}
+
+class Votación {
+    private int[][] pesos;
+    private int formato;
+
+    Votación(int celdas) {
+        pesos = new int[celdas]['Z' + 1];
+    }
+
+    public void reiniciar(int formato) {
+        this.formato = formato;
+        for (int[] pesosCelda : pesos)
+            for (int i = 0; i < pesosCelda.length; i++)
+                pesosCelda[i] = 0;
+    }
+
+    public int getFormato() {
+        return formato;
+    }
+
+    public void votar(int celda, String caracteres, char valor, int peso) {
+        int[] pesosCelda = pesos[celda];
+        for (int i = 0; i < caracteres.length(); i++) {
+            char carácter = caracteres.charAt(i);
+            pesosCelda[carácter] -= (pesosCelda[carácter] + 3) >> 2;
+        }
+        if (valor != '?')
+            pesosCelda[valor] += peso;
+    }
+
+    public int peso(int celda, char carácter) {
+        return pesos[celda][carácter];
+    }
+
+    public char consenso(int celda, String caracteres) {
+        int[] pesosCelda = pesos[celda];
+        char valor = '?';
+        int mejorPeso = 0;
+        for (int i = 0; i < caracteres.length(); i++) {
+            char carácter = caracteres.charAt(i);
+            if (pesosCelda[carácter] > mejorPeso) {
+                valor = carácter;
+                mejorPeso = pesosCelda[carácter];
+            }
+        }
+        return valor;
+    }
+}
+
+class Sesión {
+    private String[] claves;
+    private Set<String> conjunto;
+    private int siguiente;
+    private int total;
+    private String pendiente;
+    private boolean presente;
+
+    Sesión(int capacidad) {
+        claves = new String[capacidad];
+        conjunto = new HashSet<String>();
+    }
+
+    public boolean nuevaLectura(String clave) {
+        if (conjunto.contains(clave)) {
+            pendiente = null;
+            presente = true;
+            return false;
+        }
+        if (!clave.equals(pendiente)) {
+            pendiente = clave;
+            presente = false;
+            return true;
+        }
+        if (claves[siguiente] != null)
+            conjunto.remove(claves[siguiente]);
+        claves[siguiente] = clave;
+        conjunto.add(clave);
+        siguiente = (siguiente + 1) % claves.length;
+        total++;
+        pendiente = null;
+        presente = true;
+        return true;
+    }
+
+    public void ausente() {
+        pendiente = null;
+        presente = false;
+    }
+
+    public boolean getPresente() {
+        return presente;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+}
+
+class Resultado {
+    long secuencia;
+    int anchoImagen;
+    int altoImagen;
+    int xInicioImagen;
+    int yInicioImagen;
+    int anchoUsadoImagen;
+    int altoUsadoImagen;
+    boolean hayFilas;
+    boolean hayColumnas;
+    final Segmento[] filas;
+    final Segmento[] columnas;
+    int formato;
+    char dígito = '?';
+    boolean seguimiento;
+    int xInicioBanda;
+    int xFinBanda;
+    int yInicioBanda;
+    int yFinBanda;
+
+    Resultado(int númeroFilas, int númeroColumnas) {
+        filas = new Segmento[númeroFilas];
+        for (int i = 0; i < filas.length; i++)
+            filas[i] = new Segmento();
+        columnas = new Segmento[númeroColumnas];
+        for (int i = 0; i < columnas.length; i++)
+            columnas[i] = new Segmento();
+    }
+
+    private static boolean iguales(Segmento[] a, Segmento[] b) {
+        for (int i = 0; i < a.length; i++)
+            if (a[i].posición != b[i].posición || a[i].tamaño != b[i].tamaño)
+                return false;
+        return true;
+    }
+
+    public boolean mismaImagen(Resultado otro) {
+        return anchoImagen == otro.anchoImagen
+               && altoImagen == otro.altoImagen
+               && xInicioImagen == otro.xInicioImagen
+               && yInicioImagen == otro.yInicioImagen
+               && anchoUsadoImagen == otro.anchoUsadoImagen
+               && altoUsadoImagen == otro.altoUsadoImagen;
+    }
+
+    public boolean mismaRejilla(Resultado otro) {
+        return mismaImagen(otro)
+               && hayFilas == otro.hayFilas
+               && hayColumnas == otro.hayColumnas
+               && (!hayFilas || iguales(filas, otro.filas))
+               && (!hayColumnas || (formato == otro.formato
+                                    && iguales(columnas, otro.columnas)))
+               && seguimiento == otro.seguimiento
+               && (!seguimiento || (xInicioBanda == otro.xInicioBanda
+                                    && xFinBanda == otro.xFinBanda
+                                    && yInicioBanda == otro.yInicioBanda
+                                    && yFinBanda == otro.yFinBanda));
+    }
+
+    public void copiar(Resultado otro) {
+        secuencia = otro.secuencia;
+        anchoImagen = otro.anchoImagen;
+        altoImagen = otro.altoImagen;
+        xInicioImagen = otro.xInicioImagen;
+        yInicioImagen = otro.yInicioImagen;
+        anchoUsadoImagen = otro.anchoUsadoImagen;
+        altoUsadoImagen = otro.altoUsadoImagen;
+        hayFilas = otro.hayFilas;
+        hayColumnas = otro.hayColumnas;
+        for (int i = 0; i < filas.length; i++)
+            filas[i].copiar(otro.filas[i]);
+        for (int i = 0; i < columnas.length; i++)
+            columnas[i].copiar(otro.columnas[i]);
+        formato = otro.formato;
+        dígito = otro.dígito;
+        seguimiento = otro.seguimiento;
+        xInicioBanda = otro.xInicioBanda;
+        xFinBanda = otro.xFinBanda;
+        yInicioBanda = otro.yInicioBanda;
+        yFinBanda = otro.yFinBanda;
+    }
+
+    public boolean esCarácterSignificativo(int columna, int fila) {
+        return DatosOCR.esCarácterSignificativo(columna, fila, formato);
+    }
+
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public int getAnchoImagen() {
+        return anchoImagen;
+    }
+
+    public int getAltoImagen() {
+        return altoImagen;
+    }
+
+    public int getXInicioImagen() {
+        return xInicioImagen;
+    }
+
+    public int getYInicioImagen() {
+        return yInicioImagen;
+    }
+
+    public int getAnchoUsadoImagen() {
+        return anchoUsadoImagen;
+    }
+
+    public int getAltoUsadoImagen() {
+        return altoUsadoImagen;
+    }
+
+    public Segmento[] getFilas() {
+        return hayFilas ? filas : null;
+    }
+
+    public Segmento[] getColumnas() {
+        return hayColumnas ? columnas : null;
+    }
+
+    public int getFormato() {
+        return formato;
+    }
+
+    public char getDígito() {
+        return dígito;
+    }
+
+    public boolean getSeguimiento() {
+        return seguimiento;
+    }
+
+    public int getXInicioBanda() {
+        return xInicioBanda;
+    }
+
+    public int getXFinBanda() {
+        return xFinBanda;
+    }
+
+    public int getYInicioBanda() {
+        return yInicioBanda;
+    }
+
+    public int getYFinBanda() {
+        return yFinBanda;
+    }
+}
+
+class DatosOCR {
+    private static final int PORCENTAJE_DESVIACIÓN_FILAS = 12;
+    private static final int PORCENTAJE_DESVIACIÓN_COLUMNAS = 100;
+    private static final double FACTOR_UMBRAL_ÓPTIMO_CARÁCTER = 0.7;
+    private static final int LÍMITE_FOTOGRAMAS_SIN_REJILLA = 10;
+    private static final int MAGIA_PLANTILLAS = 0x4d444e50;
+    private static final int VERSIÓN_PLANTILLAS = 1;
+    private static final int TAMAÑO_LECTURA_PLANTILLAS = 32768;
+    private static final int LÍMITE_FALLOS_SEGUIMIENTO = 5;
+    private static final int CONTRASTE_MÍNIMO = 20;
+    private static final int ENFOQUE_MÍNIMO = 18;
+    private static final int CORRECCIONES_MÁXIMAS = 2;
+    private static final int PORCENTAJE_CORRECCIÓN = 10;
+    private static final int FOTOGRAMAS_VERIFICACIÓN_PRESENCIA = 15;
+
+    private static final int FILA_NÚMEROS = 0;
+    private static final int COLUMNA_NÚMEROS = 5;
+    private static final int TAMAÑO_NÚMERO_SOPORTE = 9;
+    private static final int TAMAÑO_NÚMERO_DNI = 8;
+    private static final int TAMAÑO_NIF = TAMAÑO_NÚMERO_DNI + 1;
+
+    private static final int COLUMNA_NIF_DNI = COLUMNA_NÚMEROS;
+    private static final int COLUMNA_LETRA_DNI =
+        COLUMNA_NÚMEROS + TAMAÑO_NÚMERO_DNI;
+    private static final int COLUMNA_DÍGITO_CONTROL_NIF =
+        COLUMNA_NÚMEROS + TAMAÑO_NIF;
+    private static final int COLUMNA_FINAL_LETRAS_NÚMERO_SOPORTE_DNIE =
+        COLUMNA_NÚMEROS + 3;
+    private static final int COLUMNA_NIF_DNIE =
+        COLUMNA_NÚMEROS + TAMAÑO_NÚMERO_SOPORTE + 1;
+    private static final int COLUMNA_LETRA_DNIE =
+        COLUMNA_NIF_DNIE + TAMAÑO_NÚMERO_DNI;
+    private static final int COLUMNA_ÚLTIMO_DÍGITO_DNIE =
+        COLUMNA_NIF_DNIE + TAMAÑO_NÚMERO_DNI - 1;
+    private static final int COLUMNA_FINAL_NIF_DNIE =
+        COLUMNA_NIF_DNIE + TAMAÑO_NIF;
+
+    private static final int FILA_FECHAS = 1;
+    private static final int COLUMNA_FECHA_NACIMIENTO = 0;
+    private static final int TAMAÑO_FECHA = 6;
+    private static final int COLUMNA_FECHA_CADUCIDAD =
+        COLUMNA_FECHA_NACIMIENTO + TAMAÑO_FECHA + 1 + 1;
+    private static final int COLUMNA_DÍGITO_CONTROL_FECHA_NACIMIENTO =
+        COLUMNA_FECHA_NACIMIENTO + TAMAÑO_FECHA;
+    private static final int COLUMNA_DÍGITO_CONTROL_FECHA_CADUCIDAD =
+        COLUMNA_FECHA_CADUCIDAD + TAMAÑO_FECHA;
+    private static final int TAMAÑO_DATOS_DNI =
+        TAMAÑO_NIF + 1 + TAMAÑO_FECHA + 1 + TAMAÑO_FECHA + 1;
+    private static final int TAMAÑO_DATOS_DNIE =
+        TAMAÑO_NÚMERO_SOPORTE + 1 + TAMAÑO_NIF + TAMAÑO_FECHA + 1
+        + TAMAÑO_FECHA + 1;
+
+    private static final int NÚMERO_FILAS = FILA_FECHAS + 1;
+    private static final int NÚMERO_COLUMNAS =
+            COLUMNA_NIF_DNIE + TAMAÑO_NIF;
+
+    private static final String DÍGITOS = "0123456789";
+    private static final String DÍGITOS_O_NULO = "0123456789<";
+    private static final String LETRAS_NIF = "TRWAGMYFPDXBNJZSQVHLCKE";
+    private static final String LETRAS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private static final int[] PESOS = { 7, 3, 1 };
+
+    static final int FORMATO_DNI = 1;
+    static final int FORMATO_DNIE = 2;
+
+    private int anchoImagen;
+    private int altoImagen;
+    private int xInicioImagen;
+    private int yInicioImagen;
+    private int anchoUsadoImagen;
+    private int altoUsadoImagen;
+    private int altoFilaMínimo;
+    private int anchoColumnaMínimo;
+    private Luminancia luminancia;
+    private LuminanciaMatriz matriz;
+
+    private int índiceColisiones;
+    private Barrido barrido;
+
+    private boolean seguimiento;
+    private int fallosSeguimiento;
+    private int xInicioBanda;
+    private int xFinBanda;
+    private int yInicioBanda;
+    private int yFinBanda;
+
+    private int[] valoresFilas;
+    private int contraste;
+    private int enfoque;
+    private Segmento[] filas;
+    private Segmento[] candidatoFilas;
+    private Segmento[] mejorCandidatoFilas;
+    private Ventana ventanaFilas;
+
+    private int[] valoresColumnas;
+    private byte[] mínimosColumnas;
+    private byte[] máximosColumnas;
+    private Segmento[] columnas;
+    private Segmento[] candidatoColumnas;
+    private Segmento[] mejorCandidatoColumnas;
+    private Ventana ventanaColumnas;
+
+    private Plantilla[] plantillas;
+
+    private Celda[][] celdas;
+    private int generación;
+
+    private Votación votación;
+    private Métricas métricas;
+    private Perfiles perfiles;
+
+    private AtomicReference<Resultado> intermedio;
+    private Resultado trasero;
+    private Resultado delantero;
+    private long secuencia;
+    private int fotogramasSinRejilla;
+    private Sesión sesión;
+    private int fotogramasPresencia;
+    private String claveSesión;
+
+    private int trabajadores;
+    private ExecutorService ejecutor;
+    private List<Callable<Object>> tareas;
+    private List<Future<Object>> futuros;
+
+    private int formato;
+    private char[] númeroSoporte;
+    private char dígitoControlCódigoSoporte;
+    private char[] númeroDNI;
+    private char letraNúmeroDNI;
+    private char[] NIF;
+    private char dígitoControlNIF;
+    private char[] fechaNacimiento;
+    private char dígitoControlFechaNacimiento;
+    private char[] fechaCaducidad;
+    private char dígitoControlFechaCaducidad;
+    private char[] datosDNI;
+    private char[] datosDNIE;
+    private char[] campo;
+    private char[] mejorCampo;
+    private int mejorPenalización;
+    private boolean corregido;
+    private char dígito;
+
+    DatosOCR() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    DatosOCR(int hilos) {
+        candidatoColumnas = new Segmento[NÚMERO_COLUMNAS];
+        mejorCandidatoColumnas = new Segmento[NÚMERO_COLUMNAS];
+        for (int i = 0; i < NÚMERO_COLUMNAS; i++) {
+            candidatoColumnas[i] = new Segmento();
+            mejorCandidatoColumnas[i] = new Segmento();
+        }
+
+        ventanaFilas = new Ventana(NÚMERO_FILAS + 1);
+        ventanaColumnas = new Ventana(NÚMERO_COLUMNAS);
+
+        candidatoFilas = new Segmento[NÚMERO_FILAS];
+        mejorCandidatoFilas = new Segmento[NÚMERO_FILAS];
+        for (int i = 0; i < NÚMERO_FILAS; i++) {
+            candidatoFilas[i] = new Segmento();
+            mejorCandidatoFilas[i] = new Segmento();
+        }
+
+        númeroSoporte = new char[TAMAÑO_NÚMERO_SOPORTE];
+        númeroDNI = new char[TAMAÑO_NÚMERO_DNI];
+        NIF = new char[TAMAÑO_NIF];
+        fechaNacimiento = new char[TAMAÑO_FECHA];
+        fechaCaducidad = new char[TAMAÑO_FECHA];
+        datosDNI = new char[TAMAÑO_DATOS_DNI];
+        datosDNIE = new char[TAMAÑO_DATOS_DNIE];
+        campo = new char[TAMAÑO_NÚMERO_SOPORTE + 1];
+        mejorCampo = new char[campo.length];
+
+        celdas = new Celda[NÚMERO_FILAS][NÚMERO_COLUMNAS];
+        for (int fila = 0; fila < NÚMERO_FILAS; fila++)
+            for (int columna = 0; columna < NÚMERO_COLUMNAS; columna++)
+                celdas[fila][columna] = new Celda();
+        votación = new Votación(NÚMERO_FILAS * NÚMERO_COLUMNAS);
+        métricas = new Métricas();
+        perfiles = new Perfiles();
+        matriz = new LuminanciaMatriz();
+        trasero = crearResultado();
+        delantero = crearResultado();
+        intermedio = new AtomicReference<Resultado>(crearResultado());
+
+        trabajadores = hilos;
+        if (trabajadores > 1) {
+            ejecutor = Executors.newFixedThreadPool(
+                trabajadores - 1, new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread hilo = new Thread(runnable, "DatosOCR");
+                        hilo.setDaemon(true);
+                        return hilo;
+                    }
+                });
+            tareas = new ArrayList<Callable<Object>>();
+            futuros = new ArrayList<Future<Object>>();
+            for (int i = 1; i < trabajadores; i++) {
+                final int parte = i;
+                tareas.add(new Callable<Object>() {
+                    public Object call() {
+                        reconocerCeldas(parte);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        plantillas = new Plantilla['Z' + 1];
+    }
+
+    public void cargarPlantilla(char carácter, boolean[][] plantilla) {
+        plantillas[carácter] = new Plantilla(plantilla);
+    }
+
+    public void cargarPlantillas(InputStream entrada) throws IOException {
+        DataInputStream datos = new DataInputStream(
+            new BufferedInputStream(entrada, TAMAÑO_LECTURA_PLANTILLAS));
+        if (datos.readInt() != MAGIA_PLANTILLAS
+            || datos.readInt() != VERSIÓN_PLANTILLAS)
+            throw new IOException("No es un paquete de plantillas");
+        for (int i = datos.readUnsignedShort(); i > 0; i--) {
+            char carácter = datos.readChar();
+            if (carácter >= plantillas.length)
+                throw new IOException("Carácter desconocido " + carácter);
+            plantillas[carácter] = new Plantilla(datos);
+        }
+    }
+
+    public void guardarPlantillas(OutputStream salida) throws IOException {
+        DataOutputStream datos = new DataOutputStream(salida);
+        int cantidad = 0;
+        for (Plantilla plantilla : plantillas)
+            if (plantilla != null)
+                cantidad++;
+        datos.writeInt(MAGIA_PLANTILLAS);
+        datos.writeInt(VERSIÓN_PLANTILLAS);
+        datos.writeShort(cantidad);
+        for (char carácter = 0; carácter < plantillas.length; carácter++)
+            if (plantillas[carácter] != null) {
+                datos.writeChar(carácter);
+                plantillas[carácter].escribir(datos);
+            }
+        datos.flush();
+    }
+
+    public void setTamañoImagen(int ancho, int alto,
+                                int anchoUsado, int altoUsado) {
+        anchoImagen = ancho;
+        altoImagen = alto;
+        xInicioImagen = (ancho - anchoUsado) / 2;
+        anchoUsadoImagen = anchoUsado;
+        yInicioImagen = (alto - altoUsado) / 2;
+        altoUsadoImagen = altoUsado;
+        valoresColumnas = new int[anchoUsado];
+        mínimosColumnas = new byte[anchoUsado];
+        máximosColumnas = new byte[anchoUsado];
+        valoresFilas = new int[altoUsado];
+        barrido = new Barrido(Math.max(anchoUsado, altoUsado));
+        altoFilaMínimo = altoUsado / 8;
+        buscarEnTodaLaImagen();
+    }
+
+    public void reiniciar() {
+        buscarEnTodaLaImagen();
+        reiniciarVotación(0);
+        fotogramasSinRejilla = 0;
+    }
+
+    private void buscarEnTodaLaImagen() {
+        seguimiento = false;
+        fallosSeguimiento = 0;
+        xInicioBanda = 0;
+        xFinBanda = anchoUsadoImagen;
+        yInicioBanda = 0;
+        yFinBanda = altoUsadoImagen;
+    }
+
+    private void actualizarSeguimiento() {
+        if (columnas != null) {
+            int alto = filas[1].posición + filas[1].tamaño - filas[0].posición;
+            int ancho = columnas[0].tamaño;
+            Segmento última = columnas[columnas.length - 1];
+            xInicioBanda = Math.max(0, columnas[0].posición - ancho);
+            xFinBanda = Math.min(anchoUsadoImagen,
+                                 última.posición + última.tamaño + 2 * ancho);
+            yInicioBanda = Math.max(0, filas[0].posición - alto);
+            yFinBanda = Math.min(altoUsadoImagen,
+                                 filas[0].posición + 2 * alto + alto / 2);
+            seguimiento = true;
+            fallosSeguimiento = 0;
+        } else if (seguimiento
+                   && ++fallosSeguimiento == LÍMITE_FALLOS_SEGUIMIENTO)
+            buscarEnTodaLaImagen();
+    }
+
+    private int luminosidad(int x, int y) {
+        return luminancia.luminosidad(x + xInicioImagen, y + yInicioImagen);
+    }
+
+    private int sumarFila(int y, int ancho) {
+        return luminancia.sumar(perfiles, xInicioBanda + xInicioImagen,
+                                y + yInicioImagen, ancho);
+    }
+
+    private void acumularExtremosFila(int y, int ancho) {
+        luminancia.acumularExtremos(perfiles, xInicioBanda + xInicioImagen,
+                                    y + yInicioImagen, mínimosColumnas,
+                                    máximosColumnas, xInicioBanda, ancho);
+    }
+
+    private void calcularValoresFilas() {
+        int ancho = xFinBanda - xInicioBanda;
+        for (int y = yInicioBanda; y < yFinBanda; y++)
+            valoresFilas[y] = sumarFila(y, ancho) / ancho;
+    }
+
+    private void calcularValoresColumnas() {
+        int inicio = filas[0].posición;
+        int fin = filas[1].posición + filas[1].tamaño;
+        int ancho = xFinBanda - xInicioBanda;
+        Arrays.fill(mínimosColumnas, xInicioBanda, xFinBanda, (byte) 0xff);
+        Arrays.fill(máximosColumnas, xInicioBanda, xFinBanda, (byte) 0);
+        for (int y = inicio; y < fin; y++)
+            acumularExtremosFila(y, ancho);
+        for (int x = xInicioBanda; x < xFinBanda; x++)
+            valoresColumnas[x] = (mínimosColumnas[x] & 0xff)
+                                 - (máximosColumnas[x] & 0xff);
+    }
+
+    private void calcularEnfoque() {
+        int mínimo = valoresFilas[yInicioBanda];
+        int máximo = mínimo;
+        int salto = 0;
+        for (int y = yInicioBanda + 1; y < yFinBanda; y++) {
+            mínimo = Math.min(mínimo, valoresFilas[y]);
+            máximo = Math.max(máximo, valoresFilas[y]);
+            salto = Math.max(salto,
+                             Math.abs(valoresFilas[y] - valoresFilas[y - 1]));
+        }
+        contraste = máximo - mínimo;
+        enfoque = contraste == 0 ? 0 : 100 * salto / contraste;
+    }
+
+    private void ajustarSegmentos(Segmento[] segmentos) {
+        int m, n;
+        for (int i = 0; i < segmentos.length; i++) {
+            if (i == 0) {
+                n = (segmentos[i + 1].posición
+                     - (segmentos[i].posición + segmentos[i].tamaño))
+                    / 2;
+                m = n;
+            } else if (i == segmentos.length - 1) {
+                m = (segmentos[i].posición
+                     - (segmentos[i - 1].posición + segmentos[i - 1].tamaño));
+                n = m;
+            } else {
+                m = (segmentos[i].posición
+                     - (segmentos[i - 1].posición + segmentos[i - 1].tamaño));
+                n = (segmentos[i + 1].posición
+                     - (segmentos[i].posición + segmentos[i].tamaño))
+                    / 2;
+            }
+            segmentos[i].posición -= m;
+            segmentos[i].tamaño += m + n;
+        }
+    }
+
+    private boolean candidatoFilas() {
+        índiceColisiones++;
+        if (barrido.colisión(índiceColisiones + 6) != null) {
+            Colisión a, b, c, d, e, f, g;
+            a = barrido.colisión(índiceColisiones);
+            b = barrido.colisión(índiceColisiones + 1);
+            c = barrido.colisión(índiceColisiones + 2);
+            d = barrido.colisión(índiceColisiones + 3);
+            e = barrido.colisión(índiceColisiones + 4);
+            f = barrido.colisión(índiceColisiones + 5);
+            g = barrido.colisión(índiceColisiones + 6);
+            ventanaFilas.desplazar(barrido, índiceColisiones);
+            if (ventanaFilas.hayEstrechos())
+                return false;
+            int tamañoMaxFilas = Math.max(b.tamaño,
+                                          Math.max(d.tamaño, f.tamaño));
+            int mitad = (f.posición + f.tamaño - b.posición) / 2 + b.posición;
+            if (d.posición < mitad
+                && d.posición + d.tamaño > mitad
+                && tamañoMaxFilas > Math.max(c.tamaño, e.tamaño)
+                && tamañoMaxFilas < a.tamaño
+                && tamañoMaxFilas < g.tamaño
+                && ventanaFilas.desviaciónMáxima(
+                       PORCENTAJE_DESVIACIÓN_FILAS)) {
+                for (int fila = 0;
+                     fila < candidatoFilas.length;
+                     fila++)
+                    candidatoFilas[fila].copiar(
+                        barrido.colisión(índiceColisiones + 1 + fila * 2));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Segmento[] encuentraFilas() {
+        if (xFinBanda <= xInicioBanda || yFinBanda <= yInicioBanda) {
+            contraste = 0;
+            enfoque = 0;
+            return null;
+        }
+        calcularValoresFilas();
+        calcularEnfoque();
+        if (getDesenfocado())
+            return null;
+        boolean encontrado = false;
+        int totalCandidato, totalMejor = 0;
+        for (boolean hayUmbral = barrido.iniciar(valoresFilas,
+                                                 yInicioBanda,
+                                                 yFinBanda);
+             hayUmbral;
+             hayUmbral = barrido.siguienteUmbral()) {
+            restablecerÍndiceColisiones(barrido.colisión(0));
+            while (candidatoFilas()) {
+                totalCandidato = totalTamaños(candidatoFilas);
+                if (!encontrado || totalCandidato > totalMejor) {
+                    encontrado = true;
+                    for (int i = 0; i < candidatoFilas.length; i++)
+                        mejorCandidatoFilas[i].copiar(candidatoFilas[i]);
+                    totalMejor = totalCandidato;
+                }
+            }
+        }
+        if (encontrado) {
+            ajustarSegmentos(mejorCandidatoFilas);
+            return mejorCandidatoFilas;
+        }
+        return null;
+    }
+
+    private boolean candidatoColumnas() {
+        índiceColisiones++;
+        int fin = candidatoColumnas.length * 2 + 1;
+        if (barrido.colisión(fin - 1 + índiceColisiones) != null) {
+            ventanaColumnas.desplazar(barrido, índiceColisiones);
+            if (!ventanaColumnas.hayEstrechos()
+                && ventanaColumnas.desviaciónMáxima(
+                       PORCENTAJE_DESVIACIÓN_COLUMNAS)) {
+                for (int columna = 0;
+                     columna < candidatoColumnas.length;
+                     columna++)
+                    candidatoColumnas[columna].copiar(
+                        barrido.colisión(índiceColisiones + 1 + columna * 2));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int totalTamaños(Segmento[] segmentos) {
+        int total = 0;
+        for (Segmento segmento : segmentos)
+            total += segmento.tamaño;
+        return total;
+    }
+
+    Segmento[] encuentraColumnas() {
+        anchoColumnaMínimo = (filas[1].posición + filas[1].tamaño
+                              - filas[0].posición) / 8;
+        calcularValoresColumnas();
+        boolean encontrado = false;
+        int totalCandidato, totalMejor = 0;
+        for (boolean hayUmbral = barrido.iniciar(valoresColumnas,
+                                                 xInicioBanda,
+                                                 xFinBanda);
+             hayUmbral;
+             hayUmbral = barrido.siguienteUmbral()) {
+            restablecerÍndiceColisiones(barrido.colisión(0));
+            while (candidatoColumnas()) {
+                totalCandidato = totalTamaños(candidatoColumnas);
+                if (!encontrado || (candidatoColumnas[0].posición
+                                    < mejorCandidatoColumnas[0].posición
+                                    && totalCandidato > totalMejor)) {
+                    encontrado = true;
+                    for (int i = 0; i < candidatoColumnas.length; i++)
+                        mejorCandidatoColumnas[i].copiar(
+                            candidatoColumnas[i]);
+                    totalMejor = totalCandidato;
+                }
+            }
+        }
+        if (encontrado) {
+            ajustarSegmentos(mejorCandidatoColumnas);
+            return mejorCandidatoColumnas;
+        }
+        return null;
+    }
+
+    private void restablecerÍndiceColisiones(Colisión primera) {
+        índiceColisiones = 0;
+        if (primera.esColisión)
+            índiceColisiones--;
+        ventanaFilas.reiniciar(altoFilaMínimo);
+        ventanaColumnas.reiniciar(anchoColumnaMínimo);
+    }
+
+    private int luminosidadCarácter(int columna, int fila, int x, int y) {
+        return luminosidad(x + columnas[columna].posición,
+                           y + filas[fila].posición);
+    }
+
+    private boolean bitCarácter(int columna, int fila, int x, int y,
+                                int umbral) {
+        return luminosidadCarácter(columna, fila, x, y) < umbral;
+    }
+
+    private int xInicioCarácter(int columna, int fila, int umbral) {
+        for (int x = 0; x < columnas[columna].tamaño; x++)
+            for (int y = 0; y < filas[fila].tamaño; y++)
+                if (bitCarácter(columna, fila, x, y, umbral))
+                    return x;
+        return 0;
+    }
+
+    private int xFinCarácter(int columna, int fila, int umbral) {
+        for (int x = columnas[columna].tamaño - 1; x > 0; x--)
+            for (int y = 0; y < filas[fila].tamaño; y++)
+                if (bitCarácter(columna, fila, x, y, umbral))
+                    return x;
+        return columnas[columna].tamaño - 1;
+    }
+
+    private int yInicioCarácter(int columna, int fila, int umbral) {
+        for (int y = 0; y < filas[fila].tamaño; y++)
+            for (int x = 0; x < columnas[columna].tamaño; x++)
+                if (bitCarácter(columna, fila, x, y, umbral))
+                    return y;
+        return 0;
+    }
+
+    private int yFinCarácter(int columna, int fila, int umbral) {
+        for (int y = filas[fila].tamaño - 1; y > 0; y--)
+            for (int x = 0; x < columnas[columna].tamaño; x++)
+                if (bitCarácter(columna, fila, x, y, umbral))
+                    return y;
+        return filas[fila].tamaño - 1;
+    }
+
+    private int calcularUmbralÓptimoCarácter(int columna, int fila) {
+        int suma = 0;
+        for (int y = 0; y < filas[fila].tamaño; y++)
+            for (int x = 0; x < columnas[columna].tamaño; x++)
+                suma += luminosidadCarácter(columna, fila, x, y);
+        return (int) (suma / (filas[fila].tamaño * columnas[columna].tamaño)
+                * FACTOR_UMBRAL_ÓPTIMO_CARÁCTER);
+    }
+
+    private void binarizarCarácter(int columna, int fila, Celda celda) {
+        int palabras = Plantilla.palabras(celda.ancho);
+        if (celda.bits.length < celda.alto * palabras)
+            celda.bits = new long[celda.alto * palabras];
+        for (int i = 0; i < celda.alto * palabras; i++)
+            celda.bits[i] = 0;
+        for (int y = 0; y < celda.alto; y++)
+            for (int x = 0; x < celda.ancho; x++)
+                if (bitCarácter(columna, fila, x + celda.xInicio,
+                                y + celda.yInicio, celda.umbral))
+                    celda.bits[y * palabras + (x >> 6)] |= 1L << x;
+    }
+
+    private Celda celda(int columna, int fila) {
+        Celda celda = celdas[fila][columna];
+        if (celda.generación != generación) {
+            celda.umbral = calcularUmbralÓptimoCarácter(columna, fila);
+            celda.xInicio = xInicioCarácter(columna, fila, celda.umbral);
+            celda.yInicio = yInicioCarácter(columna, fila, celda.umbral);
+            celda.ancho = xFinCarácter(columna, fila, celda.umbral)
+                          - celda.xInicio + 1;
+            celda.alto = yFinCarácter(columna, fila, celda.umbral)
+                         - celda.yInicio + 1;
+            binarizarCarácter(columna, fila, celda);
+            celda.caracteres = null;
+            celda.generación = generación;
+        }
+        return celda;
+    }
+
+    private int puntuaciónPlantilla(Celda celda, Plantilla plantilla,
+                                    int límite) {
+        long[] bits = plantilla.escalada(celda.ancho, celda.alto);
+        int puntuación = celda.ancho * celda.alto;
+        for (int i = 0; i < bits.length && puntuación >= límite; i++)
+            puntuación -= 2 * Long.bitCount(bits[i] ^ celda.bits[i]);
+        return puntuación;
+    }
+
+    private String caracteresPosibles(int columna, int fila) {
+        if (fila == 0) {
+            if (formato == FORMATO_DNIE) {
+                if (columna >= COLUMNA_NÚMEROS
+                    && columna < COLUMNA_FINAL_LETRAS_NÚMERO_SOPORTE_DNIE)
+                    return LETRAS;
+                if (columna == COLUMNA_LETRA_DNIE)
+                    return LETRAS_NIF;
+            } else if (columna == COLUMNA_LETRA_DNI)
+                return LETRAS_NIF;
+        }
+        return DÍGITOS;
+    }
+
+    char valorCarácter(int columna, int fila) {
+        return valorCarácter(
+            columna, fila, caracteresPosibles(columna, fila));
+    }
+
+    char valorCarácter(int columna, int fila, String caracteres) {
+        Celda celda = celda(columna, fila);
+        if (caracteres.equals(celda.caracteres))
+            return celda.valor;
+        celda.reiniciarCandidatos();
+        int primero = Math.max(0, caracteres.indexOf(celda.anterior));
+        for (int k = 0; k < caracteres.length(); k++) {
+            int i = k == 0 ? primero : k <= primero ? k - 1 : k;
+            int límite = celda.límiteCandidato(i);
+            int puntuación = puntuaciónPlantilla(
+                celda, plantillas[caracteres.charAt(i)], límite);
+            if (puntuación >= límite)
+                celda.añadirCandidato(i, caracteres.charAt(i), puntuación);
+        }
+        char valor = celda.candidatos[0];
+        celda.caracteres = caracteres;
+        celda.valor = valor;
+        celda.margen = celda.puntuaciones[0] - celda.puntuaciones[1];
+        if (valor != '?')
+            celda.anterior = valor;
+        return valor;
+    }
+
+    private char consenso(int columna, int fila) {
+        return votación.consenso(fila * NÚMERO_COLUMNAS + columna,
+                                 caracteresPosibles(columna, fila));
+    }
+
+    private void votar() {
+        for (int fila = 0; fila < NÚMERO_FILAS; fila++)
+            for (int columna = 0; columna < NÚMERO_COLUMNAS; columna++)
+                if (esCarácterSignificativo(columna, fila)) {
+                    char valor = valorCarácter(columna, fila);
+                    votación.votar(fila * NÚMERO_COLUMNAS + columna,
+                                   caracteresPosibles(columna, fila), valor,
+                                   celdas[fila][columna].margen + 1);
+                }
+    }
+
+    private char dígitoControl(char[] cs) {
+        return dígitoControl(cs, cs.length);
+    }
+
+    private char dígitoControl(char[] cs, int longitud) {
+        int n = 0;
+        for (int i = 0; i < longitud; i++)
+            if (Character.isDigit(cs[i]))
+                n += (cs[i] - '0') * PESOS[i % PESOS.length];
+            else if (Character.isLetter(cs[i]))
+                n += (cs[i] - 'A') * PESOS[i % PESOS.length];
+        return (char) ('0' + n % 10);
+    }
+
+    public static char calcularLetraNúmeroDNI(char[] cs) {
+        return calcularLetraNúmeroDNI(cs, cs.length);
+    }
+
+    private static char calcularLetraNúmeroDNI(char[] cs, int longitud) {
+        int n = 0;
+        for (int i = 0; i < longitud; i++)
+            n = cs[i] - '0' + n * 10;
+        return LETRAS_NIF.charAt(n % LETRAS_NIF.length());
+    }
+
+    private int penalización(int celda, char carácter, char actual) {
+        if (actual == '?' || carácter == actual)
+            return -1;
+        int peso = votación.peso(celda, carácter);
+        int pesoActual = votación.peso(celda, actual);
+        int pérdida = pesoActual - peso;
+        if (peso <= 0 || pérdida * 100 > pesoActual * PORCENTAJE_CORRECCIÓN)
+            return -1;
+        return pérdida + 1;
+    }
+
+    private void buscarCorrección(int columna, int fila, int longitud,
+                                  boolean letra, int posición, int cambios,
+                                  int penalización) {
+        if (penalización >= mejorPenalización)
+            return;
+        if (posición > longitud) {
+            for (int i = 0; i <= longitud; i++)
+                if (campo[i] == '?')
+                    return;
+            char control = letra
+                               ? calcularLetraNúmeroDNI(campo, longitud)
+                               : dígitoControl(campo, longitud);
+            if (control == campo[longitud]) {
+                mejorPenalización = penalización;
+                System.arraycopy(campo, 0, mejorCampo, 0, longitud + 1);
+            }
+            return;
+        }
+        buscarCorrección(columna, fila, longitud, letra, posición + 1,
+                         cambios, penalización);
+        if (cambios == CORRECCIONES_MÁXIMAS)
+            return;
+        int celda = fila * NÚMERO_COLUMNAS + columna + posición;
+        String caracteres = caracteresPosibles(columna + posición, fila);
+        char actual = campo[posición];
+        for (int j = 0; j < caracteres.length(); j++) {
+            int p = penalización(celda, caracteres.charAt(j), actual);
+            if (p < 0)
+                continue;
+            campo[posición] = caracteres.charAt(j);
+            buscarCorrección(columna, fila, longitud, letra, posición + 1,
+                             cambios + 1, penalización + p);
+        }
+        campo[posición] = actual;
+    }
+
+    private boolean corregir(int columna, int fila, char[] valores,
+                             char control, int fijos, boolean letra) {
+        int longitud = valores.length;
+        System.arraycopy(valores, 0, campo, 0, longitud);
+        campo[longitud] = control;
+        mejorPenalización = Integer.MAX_VALUE;
+        buscarCorrección(columna, fila, longitud, letra, fijos, 0, 0);
+        if (mejorPenalización == Integer.MAX_VALUE)
+            return false;
+        System.arraycopy(mejorCampo, 0, valores, 0, longitud);
+        corregido = true;
+        return true;
+    }
+
+    private boolean códigoSoporteVálido() {
+        for (int i = 0; i < númeroSoporte.length; i++)
+            númeroSoporte[i] = consenso(i + COLUMNA_NÚMEROS, FILA_NÚMEROS);
+        dígitoControlCódigoSoporte =
+            consenso(COLUMNA_NÚMEROS + númeroSoporte.length, FILA_NÚMEROS);
+        if (dígitoControl(númeroSoporte) == dígitoControlCódigoSoporte)
+            return true;
+        if (!corregir(COLUMNA_NÚMEROS, FILA_NÚMEROS, númeroSoporte,
+                      dígitoControlCódigoSoporte, 0, false))
+            return false;
+        dígitoControlCódigoSoporte = mejorCampo[númeroSoporte.length];
+        return true;
+    }
+
+    private boolean númeroDNIVálido() {
+        int inicio = formato == FORMATO_DNI
+                         ? COLUMNA_NIF_DNI
+                         : COLUMNA_NIF_DNIE;
+        for (int i = 0; i < númeroDNI.length; i++)
+            númeroDNI[i] = consenso(i + inicio, FILA_NÚMEROS);
+        letraNúmeroDNI = consenso(inicio + númeroDNI.length, FILA_NÚMEROS);
+        if (calcularLetraNúmeroDNI(númeroDNI) == letraNúmeroDNI)
+            return true;
+        if (!corregir(inicio, FILA_NÚMEROS, númeroDNI, letraNúmeroDNI, 0,
+                      true))
+            return false;
+        letraNúmeroDNI = mejorCampo[númeroDNI.length];
+        return true;
+    }
+
+    private boolean NIFVálido() {
+        for (int i = 0; i < númeroDNI.length; i++)
+            NIF[i] = númeroDNI[i];
+        NIF[NIF.length - 1] = letraNúmeroDNI;
+        dígitoControlNIF = consenso(COLUMNA_DÍGITO_CONTROL_NIF, FILA_NÚMEROS);
+        if (dígitoControl(NIF) == dígitoControlNIF)
+            return true;
+        if (!corregir(COLUMNA_NIF_DNI, FILA_NÚMEROS, NIF, dígitoControlNIF,
+                      NIF.length, false))
+            return false;
+        dígitoControlNIF = mejorCampo[NIF.length];
+        return true;
+    }
+
+    private boolean fechaNacimientoVálida() {
+        for (int i = 0; i < fechaNacimiento.length; i++)
+            fechaNacimiento[i] =
+                consenso(i + COLUMNA_FECHA_NACIMIENTO, FILA_FECHAS);
+        dígitoControlFechaNacimiento =
+            consenso(COLUMNA_DÍGITO_CONTROL_FECHA_NACIMIENTO, FILA_FECHAS);
+        if (dígitoControl(fechaNacimiento) == dígitoControlFechaNacimiento)
+            return true;
+        if (!corregir(COLUMNA_FECHA_NACIMIENTO, FILA_FECHAS, fechaNacimiento,
+                      dígitoControlFechaNacimiento, 0, false))
+            return false;
+        dígitoControlFechaNacimiento = mejorCampo[fechaNacimiento.length];
+        return true;
+    }
+
+    private boolean fechaCaducidadVálida() {
+        for (int i = 0; i < fechaCaducidad.length; i++)
+            fechaCaducidad[i] =
+                consenso(i + COLUMNA_FECHA_CADUCIDAD, FILA_FECHAS);
+        dígitoControlFechaCaducidad =
+            consenso(COLUMNA_DÍGITO_CONTROL_FECHA_CADUCIDAD, FILA_FECHAS);
+        if (dígitoControl(fechaCaducidad) == dígitoControlFechaCaducidad)
+            return true;
+        if (!corregir(COLUMNA_FECHA_CADUCIDAD, FILA_FECHAS, fechaCaducidad,
+                      dígitoControlFechaCaducidad, 0, false))
+            return false;
+        dígitoControlFechaCaducidad = mejorCampo[fechaCaducidad.length];
+        return true;
+    }
+
+    private boolean datosLeídosCorrectamente() {
+        corregido = false;
+        return númeroDNIVálido() && fechaNacimientoVálida()
+               && fechaCaducidadVálida()
+               && ((formato != FORMATO_DNI && códigoSoporteVálido())
+                   || (formato == FORMATO_DNI && NIFVálido()));
+    }
+
+    private void reiniciarVotación(int formato) {
+        votación.reiniciar(formato);
+        claveSesión = null;
+    }
+
+    private char calculaDígito() {
+        int i = 0;
+        if (formato != FORMATO_DNI) {
+            for (char c : númeroSoporte)
+                datosDNIE[i++] = c;
+            datosDNIE[i++] = dígitoControlCódigoSoporte;
+            for (char c : númeroDNI)
+                datosDNIE[i++] = c;
+            datosDNIE[i++] = letraNúmeroDNI;
+            for (char c : fechaNacimiento)
+                datosDNIE[i++] = c;
+            datosDNIE[i++] = dígitoControlFechaNacimiento;
+            for (char c : fechaCaducidad)
+                datosDNIE[i++] = c;
+            datosDNIE[i++] = dígitoControlFechaCaducidad;
+            return dígitoControl(datosDNIE);
+        }
+        for (char c : NIF)
+            datosDNI[i++] = c;
+        datosDNI[i++] = dígitoControlNIF;
+        for (char c : fechaNacimiento)
+            datosDNI[i++] = c;
+        datosDNI[i++] = dígitoControlFechaNacimiento;
+        for (char c : fechaCaducidad)
+            datosDNI[i++] = c;
+        datosDNI[i++] = dígitoControlFechaCaducidad;
+        return dígitoControl(datosDNI);
+    }
+
+    public boolean esCarácterSignificativo(int columna, int fila) {
+        return esCarácterSignificativo(columna, fila, formato);
+    }
+
+    static boolean esCarácterSignificativo(int columna, int fila,
+                                           int formato) {
+        return (fila == FILA_NÚMEROS && columna >= COLUMNA_NÚMEROS
+                && ((formato == FORMATO_DNIE
+                        && columna < COLUMNA_FINAL_NIF_DNIE)
+                    || (formato == FORMATO_DNI
+                        && columna <= COLUMNA_DÍGITO_CONTROL_NIF)))
+               || (fila == FILA_FECHAS
+                   && ((columna >= COLUMNA_FECHA_NACIMIENTO
+                        && columna <= COLUMNA_DÍGITO_CONTROL_FECHA_NACIMIENTO)
+                       || (columna >= COLUMNA_FECHA_CADUCIDAD
+                           && columna
+                              <= COLUMNA_DÍGITO_CONTROL_FECHA_CADUCIDAD)));
+    }
+
+    private void reconocerCeldas(int parte) {
+        int k = 0;
+        for (int fila = 0; fila < NÚMERO_FILAS; fila++)
+            for (int columna = 0; columna < NÚMERO_COLUMNAS; columna++)
+                if (esCarácterSignificativo(columna, fila)
+                    && k++ % trabajadores == parte)
+                    valorCarácter(columna, fila);
+    }
+
+    private boolean reconocerCeldas() {
+        if (ejecutor == null) {
+            reconocerCeldas(0);
+            return true;
+        }
+        futuros.clear();
+        for (Callable<Object> tarea : tareas)
+            futuros.add(ejecutor.submit(tarea));
+        boolean interrumpido = false;
+        Throwable fallo = null;
+        try {
+            reconocerCeldas(0);
+        } catch (RuntimeException e) {
+            fallo = e;
+        }
+        for (Future<Object> futuro : futuros) {
+            boolean terminado = false;
+            while (!terminado)
+                try {
+                    futuro.get();
+                    terminado = true;
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                } catch (ExecutionException e) {
+                    fallo = e.getCause();
+                    terminado = true;
+                }
+        }
+        if (interrumpido)
+            Thread.currentThread().interrupt();
+        if (fallo instanceof RuntimeException)
+            throw (RuntimeException) fallo;
+        if (fallo instanceof Error)
+            throw (Error) fallo;
+        if (fallo != null)
+            throw new RuntimeException(fallo);
+        return !interrumpido;
+    }
+
+    void invalidarCeldas() {
+        generación++;
+    }
+
+    private void publicarResultado() {
+        trasero.secuencia = ++secuencia;
+        trasero.anchoImagen = anchoImagen;
+        trasero.altoImagen = altoImagen;
+        trasero.xInicioImagen = xInicioImagen;
+        trasero.yInicioImagen = yInicioImagen;
+        trasero.anchoUsadoImagen = anchoUsadoImagen;
+        trasero.altoUsadoImagen = altoUsadoImagen;
+        trasero.hayFilas = filas != null;
+        if (filas != null)
+            for (int i = 0; i < filas.length; i++)
+                trasero.filas[i].copiar(filas[i]);
+        trasero.hayColumnas = columnas != null;
+        if (columnas != null)
+            for (int i = 0; i < columnas.length; i++)
+                trasero.columnas[i].copiar(columnas[i]);
+        trasero.formato = getFormato();
+        trasero.dígito = dígito;
+        trasero.seguimiento = seguimiento;
+        trasero.xInicioBanda = xInicioBanda;
+        trasero.xFinBanda = xFinBanda;
+        trasero.yInicioBanda = yInicioBanda;
+        trasero.yFinBanda = yFinBanda;
+        trasero = intermedio.getAndSet(trasero);
+    }
+
+    Resultado crearResultado() {
+        return new Resultado(NÚMERO_FILAS, NÚMERO_COLUMNAS);
+    }
+
+    public Resultado leerResultado() {
+        if (intermedio.get().secuencia > delantero.secuencia)
+            delantero = intermedio.getAndSet(delantero);
+        return delantero;
+    }
+
+    public void liberar() {
+        if (ejecutor != null)
+            ejecutor.shutdownNow();
+    }
+
+    public boolean encontrar(byte[] píxeles) {
+        matriz.setDatos(píxeles, anchoImagen);
+        return encontrar(matriz);
+    }
+
+    public boolean encontrar(Luminancia luminancia) {
+        long inicio = System.nanoTime();
+        long tiempo = inicio;
+        boolean leído = false;
+        this.luminancia = luminancia;
+        filas = null;
+        columnas = null;
+        dígito = '?';
+        filas = encuentraFilas();
+        tiempo = métricas.registrar(Métricas.FILAS, tiempo);
+        if (filas != null) {
+            columnas = encuentraColumnas();
+            tiempo = métricas.registrar(Métricas.COLUMNAS, tiempo);
+        }
+        actualizarSeguimiento();
+        if (columnas != null && omitirReconocimiento()) {
+            métricas.contar(Métricas.LOCALIZADOS);
+            métricas.contar(Métricas.OMITIDOS);
+            fotogramasSinRejilla = 0;
+        } else if (columnas != null) {
+            métricas.contar(Métricas.LOCALIZADOS);
+            invalidarCeldas();
+            if ('<' == valorCarácter(COLUMNA_ÚLTIMO_DÍGITO_DNIE,
+                                     FILA_NÚMEROS, DÍGITOS_O_NULO))
+                formato = FORMATO_DNI;
+            else 
+                formato = FORMATO_DNIE;
+            if (formato != votación.getFormato())
+                reiniciarVotación(formato);
+            fotogramasSinRejilla = 0;
+            tiempo = métricas.registrar(Métricas.FORMATO, tiempo);
+            boolean reconocidas = reconocerCeldas();
+            tiempo = métricas.registrar(Métricas.CARACTERES, tiempo);
+            if (reconocidas) {
+                votar();
+                leído = datosLeídosCorrectamente();
+            }
+            if (leído) {
+                dígito = calculaDígito();
+                métricas.contar(Métricas.RECONOCIDOS);
+                if (corregido)
+                    métricas.contar(Métricas.CORREGIDOS);
+                if (sesión != null)
+                    registrarEnSesión();
+            }
+            métricas.registrar(Métricas.VALIDACIÓN, tiempo);
+        } else {
+            if (getDesenfocado())
+                métricas.contar(Métricas.DESENFOCADOS);
+            if (++fotogramasSinRejilla == LÍMITE_FOTOGRAMAS_SIN_REJILLA) {
+                reiniciarVotación(0);
+                if (sesión != null)
+                    sesión.ausente();
+            }
+        }
+        publicarResultado();
+        métricas.registrar(Métricas.ENCONTRAR, inicio);
+        return leído;
+    }
+
+    private boolean omitirReconocimiento() {
+        if (sesión == null || !sesión.getPresente())
+            return false;
+        if (++fotogramasPresencia % FOTOGRAMAS_VERIFICACIÓN_PRESENCIA != 0)
+            return true;
+        reiniciarVotación(0);
+        return false;
+    }
+
+    private void registrarEnSesión() {
+        String clave = getClave();
+        boolean cambio = claveSesión != null && !clave.equals(claveSesión);
+        if (!sesión.nuevaLectura(clave)) {
+            dígito = '?';
+            métricas.contar(Métricas.DUPLICADOS);
+        }
+        if (cambio)
+            reiniciarVotación(formato);
+        claveSesión = clave;
+    }
+
+    public Sesión getSesión() {
+        return sesión;
+    }
+
+    public void setSesión(Sesión sesión) {
+        this.sesión = sesión;
+    }
+
+    public boolean getPresente() {
+        return sesión != null && sesión.getPresente();
+    }
+
+    public int getEnfoque() {
+        return enfoque;
+    }
+
+    public int getContraste() {
+        return contraste;
+    }
+
+    public boolean getDesenfocado() {
+        return contraste < CONTRASTE_MÍNIMO || enfoque < ENFOQUE_MÍNIMO;
+    }
+
+    void setPerfiles(Perfiles perfiles) {
+        this.perfiles = perfiles;
+    }
+
+    public Métricas getMétricas() {
+        return métricas;
+    }
+
+    public int getAnchoImagen() {
+        return anchoImagen;
+    }
+
+    public int getAltoImagen() {
+        return altoImagen;
+    }
+
+    public int getXInicioImagen() {
+        return xInicioImagen;
+    }
+
+    public int getYInicioImagen() {
+        return yInicioImagen;
+    }
+
+    public int getAnchoUsadoImagen() {
+        return anchoUsadoImagen;
+    }
+
+    public int getAltoUsadoImagen() {
+        return altoUsadoImagen;
+    }
+
+    public Segmento[] getColumnas() {
+        return columnas;
+    }
+
+    public boolean getSeguimiento() {
+        return seguimiento;
+    }
+
+    public int getXInicioBanda() {
+        return xInicioBanda;
+    }
+
+    public int getXFinBanda() {
+        return xFinBanda;
+    }
+
+    public int getYInicioBanda() {
+        return yInicioBanda;
+    }
+
+    public int getYFinBanda() {
+        return yFinBanda;
+    }
+
+    public Segmento[] getFilas() {
+        return filas;
+    }
+
+    public char getDígito() {
+        return dígito;
+    }
+
+    public int getFormato() {
+        return columnas == null ? 0 : formato;
+    }
+
+    public String getNIF() {
+        if (dígito == '?')
+            return null;
+        return new String(númeroDNI) + letraNúmeroDNI;
+    }
+
+    public String getNúmeroSoporte() {
+        if (dígito == '?' || formato == FORMATO_DNI)
+            return null;
+        return new String(númeroSoporte);
+    }
+
+    public String getFechaNacimiento() {
+        if (dígito == '?')
+            return null;
+        return new String(fechaNacimiento);
+    }
+
+    public String getFechaCaducidad() {
+        if (dígito == '?')
+            return null;
+        return new String(fechaCaducidad);
+    }
+
+    public char getDígitoControlNúmeroSoporte() {
+        if (dígito == '?' || formato == FORMATO_DNI)
+            return '?';
+        return dígitoControlCódigoSoporte;
+    }
+
+    public char getDígitoControlNIF() {
+        if (dígito == '?' || formato != FORMATO_DNI)
+            return '?';
+        return dígitoControlNIF;
+    }
+
+    public char getDígitoControlFechaNacimiento() {
+        if (dígito == '?')
+            return '?';
+        return dígitoControlFechaNacimiento;
+    }
+
+    public char getDígitoControlFechaCaducidad() {
+        if (dígito == '?')
+            return '?';
+        return dígitoControlFechaCaducidad;
+    }
+
+    public String getClave() {
+        return formato == FORMATO_DNI ? getNIF() : getNúmeroSoporte();
+    }
+}
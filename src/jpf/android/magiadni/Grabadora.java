@@ -0,0 +1,140 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+class Grabadora {
+    static final int MAGIA = 0x4d444e49;
+    static final int VERSIÓN = 1;
+    static final int TAMAÑO_CABECERA = 32;
+    static final int POSICIÓN_FOTOGRAMAS = 28;
+
+    private RandomAccessFile archivo;
+    private MappedByteBuffer buffer;
+    private int tamañoFotograma;
+    private int capacidad;
+    private int fotogramas;
+
+    Grabadora(File archivo, int ancho, int alto, int anchoUsado,
+              int altoUsado, int capacidad) throws IOException {
+        tamañoFotograma = ancho * alto * 3 / 2;
+        this.capacidad = capacidad;
+        long tamaño = TAMAÑO_CABECERA
+                      + (long) capacidad * (8 + tamañoFotograma);
+        this.archivo = new RandomAccessFile(archivo, "rw");
+        try {
+            this.archivo.setLength(tamaño);
+            buffer = this.archivo.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, tamaño);
+        } catch (IOException e) {
+            this.archivo.close();
+            throw e;
+        }
+        buffer.putInt(MAGIA).putInt(VERSIÓN)
+              .putInt(ancho).putInt(alto)
+              .putInt(anchoUsado).putInt(altoUsado)
+              .putInt(capacidad).putInt(0);
+    }
+
+    public boolean grabar(byte[] datos, long tiempo) {
+        if (fotogramas == capacidad)
+            return false;
+        buffer.putLong(tiempo);
+        buffer.put(datos, 0, tamañoFotograma);
+        buffer.putInt(POSICIÓN_FOTOGRAMAS, ++fotogramas);
+        return true;
+    }
+
+    public void cerrar() throws IOException {
+        buffer.force();
+        archivo.close();
+    }
+}
+
+class Reproductor {
+    private MappedByteBuffer buffer;
+    private int ancho;
+    private int alto;
+    private int anchoUsado;
+    private int altoUsado;
+    private int fotogramas;
+    private int actual;
+    private long tiempo;
+    private int tamañoFotograma;
+    private LuminanciaBuffer luminancia;
+
+    Reproductor(File archivo) throws IOException {
+        RandomAccessFile entrada = new RandomAccessFile(archivo, "r");
+        try {
+            buffer = entrada.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                              0, entrada.length());
+        } finally {
+            entrada.close();
+        }
+        if (buffer.remaining() < Grabadora.TAMAÑO_CABECERA
+            || buffer.getInt() != Grabadora.MAGIA
+            || buffer.getInt() != Grabadora.VERSIÓN)
+            throw new IOException("No es una grabación " + archivo);
+        ancho = buffer.getInt();
+        alto = buffer.getInt();
+        anchoUsado = buffer.getInt();
+        altoUsado = buffer.getInt();
+        buffer.getInt();
+        fotogramas = buffer.getInt();
+        tamañoFotograma = ancho * alto * 3 / 2;
+        luminancia = new LuminanciaBuffer(buffer, ancho, 1);
+    }
+
+    public void configurar(DatosOCR datosOCR) {
+        datosOCR.setTamañoImagen(ancho, alto, anchoUsado, altoUsado);
+    }
+
+    public boolean siguiente() {
+        if (actual == fotogramas)
+            return false;
+        tiempo = buffer.getLong();
+        luminancia.setInicio(buffer.position());
+        buffer.position(buffer.position() + tamañoFotograma);
+        actual++;
+        return true;
+    }
+
+    public Luminancia getLuminancia() {
+        return luminancia;
+    }
+
+    public long getTiempo() {
+        return tiempo;
+    }
+
+    public int getFotogramas() {
+        return fotogramas;
+    }
+
+    public int getAncho() {
+        return ancho;
+    }
+
+    public int getAlto() {
+        return alto;
+    }
+}
@@ -0,0 +1,90 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.nio.ByteBuffer;
+
+abstract class Luminancia {
+    public abstract int luminosidad(int x, int y);
+
+    public abstract int sumar(Perfiles perfiles, int x, int y, int longitud);
+
+    public abstract void acumularExtremos(Perfiles perfiles, int x, int y,
+                                          byte[] mínimos, byte[] máximos,
+                                          int desde, int longitud);
+}
+
+class LuminanciaMatriz extends Luminancia {
+    private byte[] datos;
+    private int pasoFila;
+
+    public void setDatos(byte[] datos, int pasoFila) {
+        this.datos = datos;
+        this.pasoFila = pasoFila;
+    }
+
+    public int luminosidad(int x, int y) {
+        return datos[x + pasoFila * y] & 0xff;
+    }
+
+    public int sumar(Perfiles perfiles, int x, int y, int longitud) {
+        return perfiles.sumar(datos, x + pasoFila * y, longitud);
+    }
+
+    public void acumularExtremos(Perfiles perfiles, int x, int y,
+                                 byte[] mínimos, byte[] máximos,
+                                 int desde, int longitud) {
+        perfiles.acumularExtremos(datos, x + pasoFila * y, mínimos, máximos,
+                                  desde, longitud);
+    }
+}
+
+class LuminanciaBuffer extends Luminancia {
+    private ByteBuffer buffer;
+    private int inicio;
+    private int pasoFila;
+    private int pasoPíxel;
+
+    LuminanciaBuffer(ByteBuffer buffer, int pasoFila, int pasoPíxel) {
+        this.buffer = buffer;
+        this.pasoFila = pasoFila;
+        this.pasoPíxel = pasoPíxel;
+    }
+
+    public void setInicio(int inicio) {
+        this.inicio = inicio;
+    }
+
+    private int índice(int x, int y) {
+        return inicio + pasoFila * y + pasoPíxel * x;
+    }
+
+    public int luminosidad(int x, int y) {
+        return buffer.get(índice(x, y)) & 0xff;
+    }
+
+    public int sumar(Perfiles perfiles, int x, int y, int longitud) {
+        return perfiles.sumar(buffer, índice(x, y), pasoPíxel, longitud);
+    }
+
+    public void acumularExtremos(Perfiles perfiles, int x, int y,
+                                 byte[] mínimos, byte[] máximos,
+                                 int desde, int longitud) {
+        perfiles.acumularExtremos(buffer, índice(x, y), pasoPíxel, mínimos,
+                                  máximos, desde, longitud);
+    }
+}
@@ -22,13 +22,15 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
-import android.graphics.Bitmap;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.BitmapFactory;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Display;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -40,17 +42,26 @@ import android.view.ViewGroup.LayoutParams;
 import android.view.Window;
 import android.view.WindowManager;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class MagiaDNI extends Activity {
     private MenuItem opciónManual;
     private MenuItem opciónPrivacidad;
     private MenuItem opciónCopyleft;
+    private MenuItem opciónMétricas;
+    private MenuItem opciónGrabar;
+    private MenuItem opciónAdaptar;
+    private MenuItem opciónSesión;
+    private DatosOCR datosOCR;
     private Pantalla pantalla;
     private Preview preview;
 
@@ -58,7 +69,8 @@ public class MagiaDNI extends Activity {
         super.onCreate(savedInstanceState);
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
-        DatosOCR datosOCR = new DatosOCR(this);
+        datosOCR = new DatosOCR();
+        cargarPlantillas();
         ReentrantLock lock = new ReentrantLock();
         pantalla = new Pantalla(this, datosOCR, lock);
         preview = new Preview(this, datosOCR, pantalla, lock);
@@ -70,13 +82,47 @@ public class MagiaDNI extends Activity {
                                                   LayoutParams.WRAP_CONTENT));
     }
 
+    private void cargarPlantillas() {
+        try {
+            InputStream entrada =
+                getResources().openRawResource(R.raw.plantillas);
+            try {
+                datosOCR.cargarPlantillas(entrada);
+            } finally {
+                entrada.close();
+            }
+        } catch (IOException e) {
+            Log.e("MagiaDNI", "No se pueden cargar las plantillas", e);
+        }
+    }
+
+    protected void onDestroy() {
+        datosOCR.liberar();
+        super.onDestroy();
+    }
+
     public boolean onCreateOptionsMenu(Menu menu) {
         opciónManual = menu.add("Manual");
         opciónPrivacidad = menu.add("Privacidad");
         opciónCopyleft = menu.add("Copyleft");
+        opciónMétricas = menu.add("Métricas");
+        if (esDepurable())
+            opciónGrabar = menu.add("Grabar");
+        opciónAdaptar = menu.add("Adaptar");
+        opciónSesión = menu.add("Sesión");
         return super.onCreateOptionsMenu(menu);
     }
 
+    private boolean esDepurable() {
+        try {
+            ApplicationInfo info = getPackageManager()
+                .getApplicationInfo(getPackageName(), 0);
+            return (info.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
     private void mostrarTexto(String archivo) {
         Intent intent = new Intent(this, Texto.class);
         Bundle bundle = new Bundle();
@@ -92,6 +138,14 @@ public class MagiaDNI extends Activity {
             mostrarTexto("privacidad");
         if (item == opciónCopyleft)
             mostrarTexto("copyleft");
+        if (item == opciónMétricas)
+            pantalla.alternarMétricas();
+        if (item == opciónGrabar)
+            preview.alternarGrabación();
+        if (item == opciónAdaptar)
+            preview.alternarAdaptación();
+        if (item == opciónSesión)
+            pantalla.alternarSesión();
         return false;
     }
 
@@ -106,8 +160,11 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
                                              Camera.PreviewCallback,
                                              Camera.AutoFocusCallback {
     private static final int LÍMITE_ERRORES = 20;
+    private static final int FOTOGRAMAS_ENTRE_ENFOQUES = 10;
     private static final int ANCHO_MÍNIMO = 640;
     private static final int ALTO_MÍNIMO = 480;
+    private static final int BUFFERS_VISTA_PREVIA = 2;
+    private static final int FOTOGRAMAS_GRABACIÓN = 100;
 
     private ReentrantLock lock;
     private Camera camera;
@@ -117,6 +174,15 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
     private boolean avisado = false;
     private boolean enfocando;
     private int errores;
+    private byte[][] buffers;
+    private Method addCallbackBuffer;
+    private Object[] argumentosBuffer = new Object[1];
+    private Grabadora grabadora;
+    private int[] anchos;
+    private int[] altos;
+    private int índiceÓptimo;
+    private Adaptación adaptación;
+    private Runnable cambioTamaño;
 
     Preview(Context context, DatosOCR datosOCR, Pantalla pantalla,
             ReentrantLock lock) {
@@ -129,6 +195,13 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
         holder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
         display = ((WindowManager) context.getSystemService(
             Context.WINDOW_SERVICE)).getDefaultDisplay();
+        cambioTamaño = new Runnable() {
+            public void run() {
+                if (adaptación != null)
+                    cambiarTamaño(adaptación.getAncho(),
+                                  adaptación.getAlto());
+            }
+        };
     }
 
     private long diferenciaRatio(Camera.Size size) {
@@ -137,6 +210,41 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
                                           / display.getHeight()));
     }
 
+    private void construirEscalera(List<Camera.Size> candidatos,
+                                   Camera.Size óptimo) {
+        List<Camera.Size> escalera = new ArrayList<Camera.Size>();
+        for (Camera.Size candidato : candidatos)
+            if (candidato == óptimo
+                || (candidato.height >= ALTO_MÍNIMO
+                    && diferenciaRatio(candidato) == diferenciaRatio(óptimo)))
+                escalera.add(candidato);
+        Collections.sort(escalera, new Comparator<Camera.Size>() {
+            public int compare(Camera.Size a, Camera.Size b) {
+                return a.width * a.height - b.width * b.height;
+            }
+        });
+        anchos = new int[escalera.size()];
+        altos = new int[escalera.size()];
+        for (int i = 0; i < anchos.length; i++) {
+            anchos[i] = escalera.get(i).width;
+            altos[i] = escalera.get(i).height;
+        }
+        índiceÓptimo = escalera.indexOf(óptimo);
+    }
+
+    private void configurarDatosOCR() {
+        Camera.Size size = camera.getParameters().getPreviewSize();
+        if (adaptación != null)
+            datosOCR.setTamañoImagen(
+                size.width, size.height,
+                Adaptación.anchoUsado(size.width, size.height),
+                Adaptación.altoUsado(size.width, size.height));
+        else
+            datosOCR.setTamañoImagen(
+                size.width, size.height, Math.min(size.width, ANCHO_MÍNIMO),
+                Math.min(size.height, ALTO_MÍNIMO) / 3);
+    }
+
     public void surfaceCreated(SurfaceHolder holder) {
         camera = Camera.open();
         try {
@@ -162,6 +270,7 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
             }
             parameters.setPreviewSize(óptimo.width, óptimo.height);
             camera.setParameters(parameters);
+            construirEscalera(candidatos, óptimo);
         } catch (NoSuchMethodException e) {
         } catch (InvocationTargetException e) {
         } catch (IllegalAccessException e) {
@@ -185,9 +294,11 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
                 });
             deleteAlert.show();
         }
-        datosOCR.setTamañoImagen(
-                size.width, size.height, Math.min(size.width, ANCHO_MÍNIMO),
-                Math.min(size.height, ALTO_MÍNIMO) / 3);
+        if (adaptación != null)
+            adaptación = anchos == null
+                             ? null
+                             : new Adaptación(anchos, altos, índiceÓptimo);
+        configurarDatosOCR();
         errores = LÍMITE_ERRORES;
         enfocando = false;
         try {
@@ -197,15 +308,136 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
     }
 
     public void onPreviewFrame(byte[] data, Camera camera) {
+        Métricas métricas = datosOCR.getMétricas();
+        métricas.contar(Métricas.RECIBIDOS);
         if (lock.tryLock()) {
-            if (datosOCR.encontrar(data))
+            grabar(data);
+            long inicio = System.nanoTime();
+            boolean leído = datosOCR.encontrar(data);
+            if (adaptación != null
+                && adaptación.registrar(System.nanoTime() - inicio,
+                                        datosOCR.getColumnas() != null,
+                                        leído || datosOCR.getPresente()))
+                post(cambioTamaño);
+            if (leído || datosOCR.getPresente())
                 errores = 0;
-            else if (!enfocando && ++errores > LÍMITE_ERRORES) {
+            else if (!enfocando
+                     && (++errores > LÍMITE_ERRORES
+                         || datosOCR.getDesenfocado()
+                            && errores > FOTOGRAMAS_ENTRE_ENFOQUES)) {
+                if (datosOCR.getDesenfocado()
+                    && Log.isLoggable("MagiaDNI", Log.DEBUG))
+                    Log.d("MagiaDNI", "Enfoque " + datosOCR.getEnfoque()
+                                      + " contraste "
+                                      + datosOCR.getContraste());
                 errores = 0;
                 enfocando = true;
+                métricas.contar(Métricas.ENFOQUES);
                 camera.autoFocus(this);
             }
-            pantalla.invalidate();
+            pantalla.nuevoResultado();
+        } else
+            métricas.contar(Métricas.DESCARTADOS);
+        devolverBuffer(data);
+    }
+
+    private boolean usarBuffers() {
+        try {
+            Method setPreviewCallbackWithBuffer = Camera.class.getMethod(
+                "setPreviewCallbackWithBuffer", Camera.PreviewCallback.class);
+            addCallbackBuffer = Camera.class.getMethod("addCallbackBuffer",
+                                                       byte[].class);
+            Camera.Size size = camera.getParameters().getPreviewSize();
+            int tamaño = size.width * size.height * 3 / 2;
+            if (buffers == null || buffers[0].length != tamaño) {
+                buffers = new byte[BUFFERS_VISTA_PREVIA][];
+                for (int i = 0; i < buffers.length; i++)
+                    buffers[i] = new byte[tamaño];
+            }
+            camera.setPreviewCallback(null);
+            setPreviewCallbackWithBuffer.invoke(camera, this);
+            for (byte[] buffer : buffers)
+                devolverBuffer(buffer);
+            return true;
+        } catch (NoSuchMethodException e) {
+        } catch (InvocationTargetException e) {
+        } catch (IllegalAccessException e) {
+        }
+        addCallbackBuffer = null;
+        return false;
+    }
+
+    private void devolverBuffer(byte[] buffer) {
+        if (addCallbackBuffer != null) {
+            argumentosBuffer[0] = buffer;
+            try {
+                addCallbackBuffer.invoke(camera, argumentosBuffer);
+            } catch (InvocationTargetException e) {
+            } catch (IllegalAccessException e) {
+            }
+        }
+    }
+
+    private synchronized void grabar(byte[] data) {
+        if (grabadora != null && !grabadora.grabar(data, System.nanoTime()))
+            detenerGrabación();
+    }
+
+    public synchronized void alternarGrabación() {
+        if (grabadora != null) {
+            detenerGrabación();
+            return;
+        }
+        if (camera == null)
+            return;
+        File archivo = new File(getContext().getFilesDir(),
+                                "magiadni-" + System.currentTimeMillis()
+                                + ".grabacion");
+        try {
+            grabadora = new Grabadora(archivo, datosOCR.getAnchoImagen(),
+                                      datosOCR.getAltoImagen(),
+                                      datosOCR.getAnchoUsadoImagen(),
+                                      datosOCR.getAltoUsadoImagen(),
+                                      FOTOGRAMAS_GRABACIÓN);
+        } catch (IOException e) {
+            Log.e("MagiaDNI", "No se puede grabar en " + archivo, e);
+        }
+    }
+
+    private synchronized void detenerGrabación() {
+        try {
+            grabadora.cerrar();
+        } catch (IOException e) {
+            Log.e("MagiaDNI", "No se puede cerrar la grabación", e);
+        }
+        grabadora = null;
+    }
+
+    private void cambiarTamaño(int ancho, int alto) {
+        if (camera == null)
+            return;
+        if (grabadora != null)
+            detenerGrabación();
+        Log.d("MagiaDNI", "Vista previa " + ancho + "x" + alto);
+        addCallbackBuffer = null;
+        camera.setPreviewCallback(null);
+        camera.stopPreview();
+        Camera.Parameters parameters = camera.getParameters();
+        parameters.setPreviewSize(ancho, alto);
+        camera.setParameters(parameters);
+        configurarDatosOCR();
+        iniciarVistaPrevia();
+    }
+
+    public void alternarAdaptación() {
+        if (camera == null || anchos == null)
+            return;
+        if (adaptación == null) {
+            adaptación = new Adaptación(anchos, altos, índiceÓptimo);
+            configurarDatosOCR();
+        } else {
+            adaptación = null;
+            cambiarTamaño(anchos[índiceÓptimo], altos[índiceÓptimo]);
         }
     }
 
@@ -214,16 +446,24 @@ class Preview extends SurfaceView implements SurfaceHolder.Callback,
     }
 
     public void surfaceDestroyed(SurfaceHolder holder) {
+        if (grabadora != null)
+            detenerGrabación();
+        addCallbackBuffer = null;
         camera.setPreviewCallback(null);
         camera.stopPreview();
         camera.release();
         camera = null;
     }
 
+    private void iniciarVistaPrevia() {
+        camera.startPreview();
+        if (!usarBuffers())
+            camera.setPreviewCallback(this);
+    }
+
     public void surfaceChanged(SurfaceHolder holder, int format,
                                int width, int height) {
-        camera.startPreview();
-        camera.setPreviewCallback(this);
+        iniciarVistaPrevia();
     }
 }
 
@@ -231,26 +471,46 @@ class Pantalla extends View {
     private static final int SEGUNDOS_A_MOSTRAR_DÍGITO = 3;
     private static final int CONFIRMACIÓN_ACEPTABLE = 1;
     private static final int LÍMITE_ERRORES = 5;
+    private static final int CAPACIDAD_SESIÓN = 1000;
 
     private ReentrantLock lock;
     private Paint blanco;
     private Paint negro;
+    private Paint seguimiento;
     private Paint texto;
     private Paint estiloDígito;
+    private Paint estiloMétricas;
     private DatosOCR datosOCR;
+    private boolean mostrarMétricas = false;
+    private StringBuilder línea = new StringBuilder();
+    private char[] caracteres = new char[0];
+    private Resultado dibujado;
+    private Rect sucio = new Rect();
+    private Runnable actualizador;
     private char dígito = '?';
+    private char dígitoMostrado = '?';
     private long tiempo = 0;
     private int confirmación = 0;
     private int errores = 0;
+    private int documentosMostrados = -1;
 
     Pantalla(Context context, DatosOCR datosOCR, ReentrantLock lock) {
         super(context);
         this.datosOCR = datosOCR;
         this.lock = lock;
+        dibujado = datosOCR.crearResultado();
+        actualizador = new Runnable() {
+            public void run() {
+                actualizar();
+            }
+        };
         blanco = new Paint();
         blanco.setARGB(200, 255, 255, 255);
         negro = new Paint();
         negro.setARGB(160, 0, 0, 0);
+        seguimiento = new Paint();
+        seguimiento.setARGB(200, 0, 255, 0);
+        seguimiento.setStyle(Paint.Style.STROKE);
         texto = new Paint();
         texto.setColor(Color.WHITE);
         texto.setAntiAlias(true);
@@ -258,19 +518,179 @@ class Pantalla extends View {
         estiloDígito.setTextAlign(Paint.Align.CENTER);
         estiloDígito.setAntiAlias(true);
         estiloDígito.setColor(Color.WHITE);
+        estiloMétricas = new Paint();
+        estiloMétricas.setColor(Color.WHITE);
+        estiloMétricas.setAntiAlias(true);
+    }
+
+    public void alternarMétricas() {
+        mostrarMétricas = !mostrarMétricas;
+        invalidate();
+    }
+
+    public void alternarSesión() {
+        if (datosOCR.getSesión() == null)
+            datosOCR.setSesión(new Sesión(CAPACIDAD_SESIÓN));
+        else
+            datosOCR.setSesión(null);
+    }
+
+    private void añadirMicrosegundos(String nombre, long nanosegundos) {
+        línea.append(' ').append(nombre).append(' ')
+             .append(nanosegundos / 1000).append("us");
+    }
+
+    private void dibujarLínea(Canvas canvas, float x, float y,
+                              Paint estilo) {
+        if (caracteres.length < línea.length())
+            caracteres = new char[línea.length()];
+        línea.getChars(0, línea.length(), caracteres, 0);
+        canvas.drawText(caracteres, 0, línea.length(), x, y, estilo);
+    }
+
+    private void dibujarMétricas(Canvas canvas) {
+        Métricas métricas = datosOCR.getMétricas();
+        estiloMétricas.setTextSize(canvas.getHeight() / 30);
+        float altoLínea = estiloMétricas.getTextSize();
+        float y = altoLínea;
+        línea.setLength(0);
+        for (int i = 0; i < Métricas.CONTADORES; i++)
+            línea.append(Métricas.NOMBRES_CONTADORES[i]).append(' ')
+                 .append(métricas.getContador(i)).append(' ');
+        dibujarLínea(canvas, 0, y, estiloMétricas);
+        for (int etapa = 0; etapa < Métricas.ETAPAS; etapa++) {
+            long cuenta = métricas.getCuenta(etapa);
+            y += altoLínea;
+            línea.setLength(0);
+            línea.append(Métricas.NOMBRES_ETAPAS[etapa]).append(' ')
+                 .append(cuenta);
+            if (cuenta > 0) {
+                añadirMicrosegundos("media", métricas.getTotal(etapa)
+                                             / cuenta);
+                añadirMicrosegundos("p50", métricas.getPercentil(etapa, 50));
+                añadirMicrosegundos("p95", métricas.getPercentil(etapa, 95));
+                añadirMicrosegundos("máx", métricas.getMáximo(etapa));
+            }
+            dibujarLínea(canvas, 0, y, estiloMétricas);
+        }
     }
 
-    protected void onDraw(Canvas canvas) {
-        int xInicio = datosOCR.getXInicioImagen();
-        int yInicio = datosOCR.getYInicioImagen();
-        int anchoUsado = datosOCR.getAnchoUsadoImagen();
-        int altoUsado = datosOCR.getAltoUsadoImagen();
-        float ratioX = (float) canvas.getWidth() / datosOCR.getAnchoImagen();
-        float ratioY = (float) canvas.getHeight() / datosOCR.getAltoImagen();
+    private void añadirSucio(Resultado resultado, int x1, int y1,
+                             int x2, int y2) {
+        float ratioX = (float) getWidth() / resultado.getAnchoImagen();
+        float ratioY = (float) getHeight() / resultado.getAltoImagen();
+        int xInicio = resultado.getXInicioImagen();
+        int yInicio = resultado.getYInicioImagen();
+        sucio.union((int) ((x1 + xInicio) * ratioX) - 1,
+                    (int) ((y1 + yInicio) * ratioY) - 1,
+                    (int) ((x2 + xInicio) * ratioX) + 2,
+                    (int) ((y2 + yInicio) * ratioY) + 2);
+    }
+
+    private void añadirRejilla(Resultado resultado) {
+        if (resultado.getSeguimiento())
+            añadirSucio(resultado, resultado.getXInicioBanda(),
+                        resultado.getYInicioBanda(),
+                        resultado.getXFinBanda(), resultado.getYFinBanda());
+        Segmento[] filas = resultado.getFilas();
+        if (filas != null) {
+            Segmento[] columnas = resultado.getColumnas();
+            Segmento última = filas[filas.length - 1];
+            if (columnas == null)
+                añadirSucio(resultado, 0, filas[0].posición,
+                            resultado.getAnchoUsadoImagen(),
+                            última.posición + última.tamaño + 1);
+            else
+                añadirSucio(resultado, columnas[0].posición,
+                            filas[0].posición,
+                            columnas[columnas.length - 1].posición
+                            + columnas[columnas.length - 1].tamaño,
+                            última.posición + última.tamaño);
+        }
+    }
 
-        Segmento[] filas = datosOCR.getFilas();
+    private void confirmar(char nuevoDígito) {
+        if (nuevoDígito == '?') {
+            if (dígito != '?' && confirmación < CONFIRMACIÓN_ACEPTABLE
+                && ++errores >= LÍMITE_ERRORES)
+                dígito = '?';
+        } else if (dígito == nuevoDígito)
+            confirmación++;
+        else {
+            confirmación = 0;
+            errores = 0;
+            dígito = nuevoDígito;
+            tiempo = 0;
+        }
+    }
+
+    private void actualizar() {
+        Resultado nuevo = datosOCR.leerResultado();
+        if (nuevo.getSecuencia() != dibujado.getSecuencia()) {
+            if (!nuevo.mismaImagen(dibujado))
+                sucio.union(0, 0, getWidth(), getHeight());
+            else if (!nuevo.mismaRejilla(dibujado)) {
+                añadirRejilla(dibujado);
+                añadirRejilla(nuevo);
+            }
+            confirmar(nuevo.getDígito());
+            dibujado.copiar(nuevo);
+        }
+
+        char mostrar = '?';
+        if (dígito != '?' && confirmación >= CONFIRMACIÓN_ACEPTABLE) {
+            if (tiempo == 0)
+                tiempo = System.currentTimeMillis();
+            if ((System.currentTimeMillis() - tiempo) / 1000
+                >= SEGUNDOS_A_MOSTRAR_DÍGITO)
+                dígito = '?';
+            else
+                mostrar = dígito;
+        }
+        if (mostrar != dígitoMostrado) {
+            dígitoMostrado = mostrar;
+            sucio.union((getWidth() - getHeight()) / 2, 0,
+                        (getWidth() + getHeight()) / 2, getHeight());
+        }
+
+        Sesión sesión = datosOCR.getSesión();
+        int documentos = sesión == null ? -1 : sesión.getTotal();
+        if (documentos != documentosMostrados) {
+            documentosMostrados = documentos;
+            sucio.union(0, getHeight() - 2 * getHeight() / 22, getWidth(),
+                        getHeight());
+        }
+
+        if (mostrarMétricas)
+            sucio.union(0, 0, getWidth(),
+                        (Métricas.ETAPAS + 2) * getHeight() / 30);
+
+        if (!sucio.isEmpty()) {
+            invalidate(sucio);
+            sucio.setEmpty();
+        }
+
+        if (lock.isLocked())
+            lock.unlock();
+    }
+
+    public void nuevoResultado() {
+        post(actualizador);
+    }
+
+    protected void onDraw(Canvas canvas) {
+        long inicio = System.nanoTime();
+        Resultado resultado = dibujado;
+        int xInicio = resultado.getXInicioImagen();
+        int yInicio = resultado.getYInicioImagen();
+        int anchoUsado = resultado.getAnchoUsadoImagen();
+        int altoUsado = resultado.getAltoUsadoImagen();
+        float ratioX = (float) canvas.getWidth() / resultado.getAnchoImagen();
+        float ratioY = (float) canvas.getHeight() / resultado.getAltoImagen();
+
+        Segmento[] filas = resultado.getFilas();
         if (filas != null) {
-            Segmento[] columnas = datosOCR.getColumnas();
+            Segmento[] columnas = resultado.getColumnas();
             if (columnas == null) {
                 float x1 = xInicio * ratioX;
                 float x2 = (xInicio + anchoUsado) * ratioX;
@@ -289,7 +709,8 @@ class Pantalla extends View {
                     for (int columna = 0;
                          columna < columnas.length;
                          columna++)
-                        if (datosOCR.esCarácterSignificativo(columna, fila)) {
+                        if (resultado.esCarácterSignificativo(columna,
+                                                              fila)) {
                             float x1 = (columnas[columna].posición + xInicio)
                                     * ratioX;
                             float x2 = (columnas[columna].posición
@@ -300,6 +721,13 @@ class Pantalla extends View {
                 }
         }
 
+        if (resultado.getSeguimiento())
+            canvas.drawRect((resultado.getXInicioBanda() + xInicio) * ratioX,
+                            (resultado.getYInicioBanda() + yInicio) * ratioY,
+                            (resultado.getXFinBanda() + xInicio) * ratioX - 1,
+                            (resultado.getYFinBanda() + yInicio) * ratioY - 1,
+                            seguimiento);
+
         canvas.drawRect(0, 0, canvas.getWidth(), yInicio * ratioY, negro);
         canvas.drawRect(0, (yInicio + altoUsado) * ratioY, canvas.getWidth(),
                         canvas.getHeight(), negro);
@@ -308,771 +736,27 @@ class Pantalla extends View {
         canvas.drawRect((xInicio + anchoUsado) * ratioX, yInicio * ratioY,
                 canvas.getWidth(), (yInicio + altoUsado) * ratioY, negro);
 
-        String mensaje = "Enfocar las 3 líneas de caracteres OCR del DNI";
+        línea.setLength(0);
+        if (documentosMostrados < 0)
+            línea.append("Enfocar las 3 líneas de caracteres OCR del DNI");
+        else
+            línea.append("Sesión: ").append(documentosMostrados)
+                 .append(" documentos leídos");
         float x = canvas.getWidth() / 2;
         float y = canvas.getHeight() - texto.getTextSize();
         texto.setTextSize(canvas.getHeight() / 22);
         texto.setTextAlign(Paint.Align.CENTER);
-        canvas.drawText(mensaje, x, y, texto);
-
-        char nuevoDígito = datosOCR.getDígito();
-        if (nuevoDígito == '?') {
-            if (dígito != '?' && confirmación < CONFIRMACIÓN_ACEPTABLE
-                && ++errores >= LÍMITE_ERRORES)
-                dígito = '?';
-        } else if (dígito == nuevoDígito)
-            confirmación++;
-        else {
-            confirmación = 0;
-            errores = 0;
-            dígito = nuevoDígito;
-            tiempo = 0;
-        }
+        dibujarLínea(canvas, x, y, texto);
 
-        if (dígito != '?' && confirmación >= CONFIRMACIÓN_ACEPTABLE) {
-            if (tiempo == 0)
-                tiempo = System.currentTimeMillis();
+        if (dígitoMostrado != '?') {
             estiloDígito.setTextSize(canvas.getHeight());
             y = canvas.getHeight() / 2 + estiloDígito.getTextSize() / 3;
-            canvas.drawText(Character.toString(dígito), x, y, estiloDígito);
-            if ((System.currentTimeMillis() - tiempo) / 1000
-                >= SEGUNDOS_A_MOSTRAR_DÍGITO)
-                dígito = '?';
+            canvas.drawText(Character.toString(dígitoMostrado), x, y,
+                            estiloDígito);
         }
 
-        if (lock.isLocked())
-            lock.unlock();
-    }
-}
-
-class Segmento {
-    public int posición;
-    public int tamaño;
-
-    public void copiar(Segmento otro) {
-        posición = otro.posición;
-        tamaño = otro.tamaño;
-    }
-}
-
-class Colisión extends Segmento {
-    public boolean esColisión;
-}
-
-class DatosOCR {
-    private static final double FACTOR_DESVIACIÓN_FILAS = 0.12;
-    private static final double FACTOR_DESVIACIÓN_COLUMNAS = 1.0;
-    private static final double FACTOR_UMBRAL_ÓPTIMO_CARÁCTER = 0.7;
-
-    private static final int FILA_NÚMEROS = 0;
-    private static final int COLUMNA_NÚMEROS = 5;
-    private static final int TAMAÑO_NÚMERO_SOPORTE = 9;
-    private static final int TAMAÑO_NÚMERO_DNI = 8;
-    private static final int TAMAÑO_NIF = TAMAÑO_NÚMERO_DNI + 1;
-
-    private static final int COLUMNA_NIF_DNI = COLUMNA_NÚMEROS;
-    private static final int COLUMNA_LETRA_DNI =
-        COLUMNA_NÚMEROS + TAMAÑO_NÚMERO_DNI;
-    private static final int COLUMNA_DÍGITO_CONTROL_NIF =
-        COLUMNA_NÚMEROS + TAMAÑO_NIF;
-    private static final int COLUMNA_FINAL_LETRAS_NÚMERO_SOPORTE_DNIE =
-        COLUMNA_NÚMEROS + 3;
-    private static final int COLUMNA_NIF_DNIE =
-        COLUMNA_NÚMEROS + TAMAÑO_NÚMERO_SOPORTE + 1;
-    private static final int COLUMNA_LETRA_DNIE =
-        COLUMNA_NIF_DNIE + TAMAÑO_NÚMERO_DNI;
-    private static final int COLUMNA_ÚLTIMO_DÍGITO_DNIE =
-        COLUMNA_NIF_DNIE + TAMAÑO_NÚMERO_DNI - 1;
-    private static final int COLUMNA_FINAL_NIF_DNIE =
-        COLUMNA_NIF_DNIE + TAMAÑO_NIF;
-
-    private static final int FILA_FECHAS = 1;
-    private static final int COLUMNA_FECHA_NACIMIENTO = 0;
-    private static final int TAMAÑO_FECHA = 6;
-    private static final int COLUMNA_FECHA_CADUCIDAD =
-        COLUMNA_FECHA_NACIMIENTO + TAMAÑO_FECHA + 1 + 1;
-    private static final int COLUMNA_DÍGITO_CONTROL_FECHA_NACIMIENTO =
-        COLUMNA_FECHA_NACIMIENTO + TAMAÑO_FECHA;
-    private static final int COLUMNA_DÍGITO_CONTROL_FECHA_CADUCIDAD =
-        COLUMNA_FECHA_CADUCIDAD + TAMAÑO_FECHA;
-    private static final int TAMAÑO_DATOS_DNI =
-        TAMAÑO_NIF + 1 + TAMAÑO_FECHA + 1 + TAMAÑO_FECHA + 1;
-    private static final int TAMAÑO_DATOS_DNIE =
-        TAMAÑO_NÚMERO_SOPORTE + 1 + TAMAÑO_NIF + TAMAÑO_FECHA + 1
-        + TAMAÑO_FECHA + 1;
-
-    private static final int NÚMERO_FILAS = FILA_FECHAS + 1;
-    private static final int NÚMERO_COLUMNAS =
-            COLUMNA_NIF_DNIE + TAMAÑO_NIF;
-
-    private static final String DÍGITOS = "0123456789";
-    private static final String DÍGITOS_O_NULO = "0123456789<";
-    private static final String LETRAS_NIF = "TRWAGMYFPDXBNJZSQVHLCKE";
-    private static final String LETRAS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-
-    private static final int[] PESOS = { 7, 3, 1 };
-
-    private static final int FORMATO_DNI = 1;
-    private static final int FORMATO_DNIE = 2;
-
-    private int anchoImagen;
-    private int altoImagen;
-    private int xInicioImagen;
-    private int yInicioImagen;
-    private int anchoUsadoImagen;
-    private int altoUsadoImagen;
-    private int altoFilaMínimo;
-    private int anchoColumnaMínimo;
-    private byte[] píxeles;
-
-    private Colisión[] colisiones;
-    private int cantidadColisiones;
-    private int índiceColisiones;
-
-    private int[] valoresFilas;
-    private Segmento[] filas;
-    private Segmento[] candidatoFilas;
-    private Segmento[] mejorCandidatoFilas;
-    private int[] tamañosFilas;
-    private int[] tamañosSepFilas;
-
-    private int[] valoresColumnas;
-    private Segmento[] columnas;
-    private Segmento[] candidatoColumnas;
-    private Segmento[] mejorCandidatoColumnas;
-    private int[] tamañosColumnas;
-    private int[] tamañosSepColumnas;
-
-    private HashMap<Character, boolean[][]> plantillas;
-
-    private int formato;
-    private char[] númeroSoporte;
-    private char dígitoControlCódigoSoporte;
-    private char[] númeroDNI;
-    private char letraNúmeroDNI;
-    private char[] NIF;
-    private char dígitoControlNIF;
-    private char[] fechaNacimiento;
-    private char dígitoControlFechaNacimiento;
-    private char[] fechaCaducidad;
-    private char dígitoControlFechaCaducidad;
-    private char[] datosDNI;
-    private char[] datosDNIE;
-    private char dígito;
-
-    DatosOCR(Context context) {
-        candidatoColumnas = new Segmento[NÚMERO_COLUMNAS];
-        mejorCandidatoColumnas = new Segmento[NÚMERO_COLUMNAS];
-        for (int i = 0; i < NÚMERO_COLUMNAS; i++) {
-            candidatoColumnas[i] = new Segmento();
-            mejorCandidatoColumnas[i] = new Segmento();
-        }
-
-        tamañosFilas = new int[NÚMERO_FILAS + 1];
-        tamañosSepFilas = new int[NÚMERO_FILAS];
-        tamañosColumnas = new int[NÚMERO_COLUMNAS];
-        tamañosSepColumnas = new int[NÚMERO_COLUMNAS - 1];
-
-        candidatoFilas = new Segmento[NÚMERO_FILAS];
-        mejorCandidatoFilas = new Segmento[NÚMERO_FILAS];
-        for (int i = 0; i < NÚMERO_FILAS; i++) {
-            candidatoFilas[i] = new Segmento();
-            mejorCandidatoFilas[i] = new Segmento();
-        }
-
-        númeroSoporte = new char[TAMAÑO_NÚMERO_SOPORTE];
-        númeroDNI = new char[TAMAÑO_NÚMERO_DNI];
-        NIF = new char[TAMAÑO_NIF];
-        fechaNacimiento = new char[TAMAÑO_FECHA];
-        fechaCaducidad = new char[TAMAÑO_FECHA];
-        datosDNI = new char[TAMAÑO_DATOS_DNI];
-        datosDNIE = new char[TAMAÑO_DATOS_DNIE];
-
-        plantillas = new HashMap<Character, boolean[][]>();
-        cargarPlantilla(context, '0', R.drawable.char_0);
-        cargarPlantilla(context, '1', R.drawable.char_1);
-        cargarPlantilla(context, '2', R.drawable.char_2);
-        cargarPlantilla(context, '3', R.drawable.char_3);
-        cargarPlantilla(context, '4', R.drawable.char_4);
-        cargarPlantilla(context, '5', R.drawable.char_5);
-        cargarPlantilla(context, '6', R.drawable.char_6);
-        cargarPlantilla(context, '7', R.drawable.char_7);
-        cargarPlantilla(context, '8', R.drawable.char_8);
-        cargarPlantilla(context, '9', R.drawable.char_9);
-        cargarPlantilla(context, 'A', R.drawable.char_a);
-        cargarPlantilla(context, 'B', R.drawable.char_b);
-        cargarPlantilla(context, 'C', R.drawable.char_c);
-        cargarPlantilla(context, 'D', R.drawable.char_d);
-        cargarPlantilla(context, 'E', R.drawable.char_e);
-        cargarPlantilla(context, 'F', R.drawable.char_f);
-        cargarPlantilla(context, 'G', R.drawable.char_g);
-        cargarPlantilla(context, 'H', R.drawable.char_h);
-        cargarPlantilla(context, 'I', R.drawable.char_i);
-        cargarPlantilla(context, 'J', R.drawable.char_j);
-        cargarPlantilla(context, 'K', R.drawable.char_k);
-        cargarPlantilla(context, 'L', R.drawable.char_l);
-        cargarPlantilla(context, 'M', R.drawable.char_m);
-        cargarPlantilla(context, 'N', R.drawable.char_n);
-        cargarPlantilla(context, 'O', R.drawable.char_o);
-        cargarPlantilla(context, 'P', R.drawable.char_p);
-        cargarPlantilla(context, 'Q', R.drawable.char_q);
-        cargarPlantilla(context, 'R', R.drawable.char_r);
-        cargarPlantilla(context, 'S', R.drawable.char_s);
-        cargarPlantilla(context, 'T', R.drawable.char_t);
-        cargarPlantilla(context, 'U', R.drawable.char_u);
-        cargarPlantilla(context, 'V', R.drawable.char_v);
-        cargarPlantilla(context, 'W', R.drawable.char_w);
-        cargarPlantilla(context, 'X', R.drawable.char_x);
-        cargarPlantilla(context, 'Y', R.drawable.char_y);
-        cargarPlantilla(context, 'Z', R.drawable.char_z);
-        cargarPlantilla(context, '<', R.drawable.char_lt);
-    }
-
-    private void cargarPlantilla(Context context, char carácter,
-                                 int resource) {
-        Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(),
-                                                     resource);
-        boolean[][] plantilla = new boolean[bitmap.getWidth()][];
-        for (int x = 0; x < plantilla.length; x++) {
-            plantilla[x] = new boolean[bitmap.getHeight()];
-            for (int y = 0; y < plantilla[x].length; y++)
-                plantilla[x][y] = bitmap.getPixel(x, y) == 0xff000000;
-            plantillas.put(carácter, plantilla);
-        }
-    }
-
-    public void setTamañoImagen(int ancho, int alto,
-                                int anchoUsado, int altoUsado) {
-        anchoImagen = ancho;
-        altoImagen = alto;
-        xInicioImagen = (ancho - anchoUsado) / 2;
-        anchoUsadoImagen = anchoUsado;
-        yInicioImagen = (alto - altoUsado) / 2;
-        altoUsadoImagen = altoUsado;
-        altoFilaMínimo = altoUsado / 8;
-        valoresColumnas = new int[anchoUsado];
-        valoresFilas = new int[altoUsado];
-        colisiones = new Colisión[Math.max(anchoUsado, altoUsado)];
-        for (int i = 0; i < colisiones.length; i++)
-            colisiones[i] = new Colisión();
-    }
-
-    private int max(int[] valores) {
-        int m = Integer.MIN_VALUE;
-        for (int valor : valores)
-            m = Math.max(m, valor);
-        return m;
-    }
-
-    private boolean desviaciónMáxima(int[] valores, double factor) {
-        double promedio = 0;
-        for (int valor : valores)
-            promedio += valor;
-        promedio /= valores.length;
-        double desviaciónEstándar = 0;
-        for (int valor : valores)
-            desviaciónEstándar += Math.pow(valor - promedio, 2);
-        desviaciónEstándar = Math.sqrt(desviaciónEstándar);
-        return desviaciónEstándar <= promedio * factor;
-    }
-
-    private int luminosidad(int x, int y) {
-        return píxeles[x + xInicioImagen + anchoImagen * (y + yInicioImagen)]
-               & 0xff;
-    }
-
-    private void calcularValoresFilas() {
-        for (int y = 0; y < altoUsadoImagen; y++) {
-            int total = 0;
-            for (int x = 0; x < anchoUsadoImagen; x++)
-                total += luminosidad(x, y);
-            valoresFilas[y] = total / anchoUsadoImagen;
-        }
-    }
-
-    private void calcularValoresColumnas() {
-        int inicio = filas[0].posición;
-        int fin = filas[1].posición + filas[1].tamaño;
-        for (int x = 0; x < anchoUsadoImagen; x++) {
-            int min = Integer.MAX_VALUE;
-            int max = Integer.MIN_VALUE;
-            for (int y = inicio; y < fin; y++) {
-                int v = luminosidad(x, y);
-                min = Math.min(v, min);
-                max = Math.max(v, max);
-            }
-            valoresColumnas[x] = min - max;
-        }
-    }
-
-    private void calcularColisiones(int[] valores, int umbral) {
-        cantidadColisiones = 0;
-        for (int i = 0; i < valores.length; i++) {
-            boolean colisión = valores[i] >= umbral;
-            if (cantidadColisiones == 0
-                || colisiones[cantidadColisiones - 1].esColisión
-                   != colisión) {
-                colisiones[cantidadColisiones].esColisión = colisión;
-                colisiones[cantidadColisiones].posición = i;
-                colisiones[cantidadColisiones].tamaño = 1;
-                cantidadColisiones++;
-            } else
-                colisiones[cantidadColisiones - 1].tamaño++;
-        }
-    }
-
-    private void ajustarSegmentos(Segmento[] segmentos) {
-        int m, n;
-        for (int i = 0; i < segmentos.length; i++) {
-            if (i == 0) {
-                n = (segmentos[i + 1].posición
-                     - (segmentos[i].posición + segmentos[i].tamaño))
-                    / 2;
-                m = n;
-            } else if (i == segmentos.length - 1) {
-                m = (segmentos[i].posición
-                     - (segmentos[i - 1].posición + segmentos[i - 1].tamaño));
-                n = m;
-            } else {
-                m = (segmentos[i].posición
-                     - (segmentos[i - 1].posición + segmentos[i - 1].tamaño));
-                n = (segmentos[i + 1].posición
-                     - (segmentos[i].posición + segmentos[i].tamaño))
-                    / 2;
-            }
-            segmentos[i].posición -= m;
-            segmentos[i].tamaño += m + n;
-        }
-    }
-
-    private boolean candidatoFilas() {
-        índiceColisiones++;
-        if (cantidadColisiones >= 7 + índiceColisiones) {
-            Colisión a, b, c, d, e, f, g;
-            a = colisiones[índiceColisiones];
-            b = colisiones[índiceColisiones + 1];
-            c = colisiones[índiceColisiones + 2];
-            d = colisiones[índiceColisiones + 3];
-            e = colisiones[índiceColisiones + 4];
-            f = colisiones[índiceColisiones + 5];
-            g = colisiones[índiceColisiones + 6];
-            if (b.tamaño < altoFilaMínimo
-                || d.tamaño < altoFilaMínimo
-                || f.tamaño < altoFilaMínimo)
-                return false;
-            tamañosFilas[0] = b.tamaño;
-            tamañosFilas[1] = d.tamaño;
-            tamañosFilas[2] = f.tamaño;
-            tamañosSepFilas[0] = c.tamaño;
-            tamañosSepFilas[1] = e.tamaño;
-            int tamañoMaxFilas = max(tamañosFilas);
-            int mitad = (f.posición + f.tamaño - b.posición) / 2 + b.posición;
-            if (d.posición < mitad
-                && d.posición + d.tamaño > mitad
-                && tamañoMaxFilas > max(tamañosSepFilas)
-                && tamañoMaxFilas < a.tamaño
-                && tamañoMaxFilas < g.tamaño
-                && desviaciónMáxima(tamañosFilas, FACTOR_DESVIACIÓN_FILAS)
-                && desviaciónMáxima(tamañosSepFilas,
-                                    FACTOR_DESVIACIÓN_FILAS)) {
-                for (int fila = 0;
-                     fila < candidatoFilas.length;
-                     fila++)
-                    candidatoFilas[fila].copiar(
-                        colisiones[índiceColisiones + 1 + fila * 2]);
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private Segmento[] encuentraFilas() {
-        calcularValoresFilas();
-        boolean encontrado = false;
-        int min = Integer.MAX_VALUE;
-        int max = Integer.MIN_VALUE;
-        for (int valor : valoresFilas) {
-            min = Math.min(min, valor);
-            max = Math.max(max, valor);
-        }
-        int totalCandidato, totalMejor = 0;
-        for (int umbral = min; umbral < max; umbral++) {
-            calcularColisiones(valoresFilas, umbral);
-            restablecerÍndiceColisiones();
-            while (candidatoFilas()) {
-                totalCandidato = totalTamaños(candidatoFilas);
-                if (!encontrado || totalCandidato > totalMejor) {
-                    encontrado = true;
-                    for (int i = 0; i < candidatoFilas.length; i++)
-                        mejorCandidatoFilas[i].copiar(candidatoFilas[i]);
-                    totalMejor = totalCandidato;
-                }
-            }
-        }
-        if (encontrado) {
-            ajustarSegmentos(mejorCandidatoFilas);
-            return mejorCandidatoFilas;
-        }
-        return null;
-    }
-
-    private boolean candidatoColumnas() {
-        índiceColisiones++;
-        int fin = candidatoColumnas.length * 2 + 1;
-        if (cantidadColisiones >= fin + índiceColisiones) {
-            for (int columna = 0;
-                 columna < candidatoColumnas.length;
-                 columna++) {
-                tamañosColumnas[columna] =
-                    colisiones[índiceColisiones + 1 + columna * 2].tamaño;
-                if (tamañosColumnas[columna] < anchoColumnaMínimo)
-                    return false;
-                if (columna < candidatoColumnas.length - 1)
-                    tamañosSepColumnas[columna] =
-                        colisiones[índiceColisiones + 2 + columna * 2].tamaño;
-            }
-            if (desviaciónMáxima(tamañosColumnas, FACTOR_DESVIACIÓN_COLUMNAS)
-                && desviaciónMáxima(tamañosSepColumnas,
-                                    FACTOR_DESVIACIÓN_COLUMNAS)) {
-                for (int columna = 0;
-                     columna < candidatoColumnas.length;
-                     columna++)
-                    candidatoColumnas[columna].copiar(
-                        colisiones[índiceColisiones + 1 + columna * 2]);
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private int totalTamaños(Segmento[] segmentos) {
-        int total = 0;
-        for (Segmento segmento : segmentos)
-            total += segmento.tamaño;
-        return total;
-    }
-
-    private Segmento[] encuentraColumnas() {
-        anchoColumnaMínimo = (filas[1].posición + filas[1].tamaño
-                              - filas[0].posición) / 8;
-        calcularValoresColumnas();
-        boolean encontrado = false;
-        int min = Integer.MAX_VALUE;
-        int max = Integer.MIN_VALUE;
-        for (int valor : valoresColumnas) {
-            min = Math.min(min, valor);
-            max = Math.max(max, valor);
-        }
-        int totalCandidato, totalMejor = 0;
-        for (int umbral = min; umbral < max; umbral++) {
-            calcularColisiones(valoresColumnas, umbral);
-            restablecerÍndiceColisiones();
-            while (candidatoColumnas()) {
-                totalCandidato = totalTamaños(candidatoColumnas);
-                if (!encontrado || (candidatoColumnas[0].posición
-                                    < mejorCandidatoColumnas[0].posición
-                                    && totalCandidato > totalMejor)) {
-                    encontrado = true;
-                    for (int i = 0; i < candidatoColumnas.length; i++)
-                        mejorCandidatoColumnas[i].copiar(
-                            candidatoColumnas[i]);
-                    totalMejor = totalCandidato;
-                }
-            }
-        }
-        if (encontrado) {
-            ajustarSegmentos(mejorCandidatoColumnas);
-            return mejorCandidatoColumnas;
-        }
-        return null;
-    }
-
-    private void restablecerÍndiceColisiones() {
-        índiceColisiones = 0;
-        if (colisiones[índiceColisiones].esColisión)
-            índiceColisiones--;
-    }
-
-    private int luminosidadCarácter(int columna, int fila, int x, int y) {
-        return luminosidad(x + columnas[columna].posición,
-                           y + filas[fila].posición);
-    }
-
-    private boolean bitCarácter(int columna, int fila, int x, int y,
-                                int umbral) {
-        return luminosidadCarácter(columna, fila, x, y) < umbral;
-    }
-
-    private int xInicioCarácter(int columna, int fila, int umbral) {
-        for (int x = 0; x < columnas[columna].tamaño; x++)
-            for (int y = 0; y < filas[fila].tamaño; y++)
-                if (bitCarácter(columna, fila, x, y, umbral))
-                    return x;
-        return 0;
-    }
-
-    private int xFinCarácter(int columna, int fila, int umbral) {
-        for (int x = columnas[columna].tamaño - 1; x > 0; x--)
-            for (int y = 0; y < filas[fila].tamaño; y++)
-                if (bitCarácter(columna, fila, x, y, umbral))
-                    return x;
-        return columnas[columna].tamaño - 1;
-    }
-
-    private int yInicioCarácter(int columna, int fila, int umbral) {
-        for (int y = 0; y < filas[fila].tamaño; y++)
-            for (int x = 0; x < columnas[columna].tamaño; x++)
-                if (bitCarácter(columna, fila, x, y, umbral))
-                    return y;
-        return 0;
-    }
-
-    private int yFinCarácter(int columna, int fila, int umbral) {
-        for (int y = filas[fila].tamaño - 1; y > 0; y--)
-            for (int x = 0; x < columnas[columna].tamaño; x++)
-                if (bitCarácter(columna, fila, x, y, umbral))
-                    return y;
-        return filas[fila].tamaño - 1;
-    }
-
-    private int calcularUmbralÓptimoCarácter(int columna, int fila) {
-        int suma = 0;
-        for (int y = 0; y < filas[fila].tamaño; y++)
-            for (int x = 0; x < columnas[columna].tamaño; x++)
-                suma += luminosidadCarácter(columna, fila, x, y);
-        return (int) (suma / (filas[fila].tamaño * columnas[columna].tamaño)
-                * FACTOR_UMBRAL_ÓPTIMO_CARÁCTER);
-    }
-
-    private int puntuaciónPlantilla(int columna, int fila,
-                                    int xInicio, int yInicio,
-                                    int ancho, int alto, int umbral,
-                                    boolean[][] plantilla) {
-        int puntuación = 0;
-        for (int x = 0; x < ancho; x++)
-            for (int y = 0; y < alto; y++) {
-                int tx = x * plantilla.length / ancho;
-                int ty = y * plantilla[0].length / alto;
-                if (plantilla[tx][ty] == bitCarácter(columna, fila,
-                                                     x + xInicio,
-                                                     y + yInicio,
-                                                     umbral))
-                    puntuación++;
-                else
-                    puntuación--;
-            }
-        return puntuación;
-    }
-
-    private String caracteresPosibles(int columna, int fila) {
-        if (fila == 0) {
-            if (formato == FORMATO_DNIE) {
-                if (columna >= COLUMNA_NÚMEROS
-                    && columna < COLUMNA_FINAL_LETRAS_NÚMERO_SOPORTE_DNIE)
-                    return LETRAS;
-                if (columna == COLUMNA_LETRA_DNIE)
-                    return LETRAS_NIF;
-            } else if (columna == COLUMNA_LETRA_DNI)
-                return LETRAS_NIF;
-        }
-        return DÍGITOS;
-    }
-
-    private char valorCarácter(int columna, int fila) {
-        return valorCarácter(
-            columna, fila, caracteresPosibles(columna, fila));
-    }
-
-    private char valorCarácter(int columna, int fila, String caracteres) {
-        int umbral = calcularUmbralÓptimoCarácter(columna, fila);
-        int xInicio = xInicioCarácter(columna, fila, umbral);
-        int yInicio = yInicioCarácter(columna, fila, umbral);
-        int ancho = xFinCarácter(columna, fila, umbral) - xInicio + 1;
-        int alto = yFinCarácter(columna, fila, umbral) - yInicio + 1;
-        Character valor = '?';
-        int mejorPuntuación = 0;
-        for (int i = 0; i < caracteres.length(); i++) {
-            int puntuación = puntuaciónPlantilla(
-                columna, fila, xInicio, yInicio, ancho, alto, umbral,
-                plantillas.get(caracteres.charAt(i)));
-            if (puntuación > mejorPuntuación) {
-                valor = caracteres.charAt(i);
-                mejorPuntuación = puntuación;
-            }
-        }
-        return valor;
-    }
-
-    private char dígitoControl(char[] cs) {
-        int n = 0;
-        for (int i = 0; i < cs.length; i++)
-            if (Character.isDigit(cs[i]))
-                n += (cs[i] - '0') * PESOS[i % PESOS.length];
-            else if (Character.isLetter(cs[i]))
-                n += (cs[i] - 'A') * PESOS[i % PESOS.length];
-        return (char) ('0' + n % 10);
-    }
-
-    public static char calcularLetraNúmeroDNI(char[] cs) {
-        int n = 0;
-        for (char c : cs)
-            n = c - '0' + n * 10;
-        return LETRAS_NIF.charAt(n % LETRAS_NIF.length());
-    }
-
-    private boolean códigoSoporteVálido() {
-        for (int i = 0; i < númeroSoporte.length; i++)
-            númeroSoporte[i] = valorCarácter(i + COLUMNA_NÚMEROS,
-                                             FILA_NÚMEROS);
-        dígitoControlCódigoSoporte =
-            valorCarácter(COLUMNA_NÚMEROS + númeroSoporte.length,
-                          FILA_NÚMEROS);
-        return dígitoControl(númeroSoporte) == dígitoControlCódigoSoporte;
-    }
-
-    private boolean númeroDNIVálido() {
-        int inicio = formato == FORMATO_DNI
-                         ? COLUMNA_NIF_DNI
-                         : COLUMNA_NIF_DNIE;
-        for (int i = 0; i < númeroDNI.length; i++)
-            númeroDNI[i] = valorCarácter(i + inicio, FILA_NÚMEROS);
-        letraNúmeroDNI = valorCarácter(inicio + númeroDNI.length,
-                                       FILA_NÚMEROS);
-        return calcularLetraNúmeroDNI(númeroDNI) == letraNúmeroDNI;
-    }
-
-    private boolean NIFVálido() {
-        for (int i = 0; i < númeroDNI.length; i++)
-            NIF[i] = númeroDNI[i];
-        NIF[NIF.length - 1] = letraNúmeroDNI;
-        dígitoControlNIF = valorCarácter(COLUMNA_DÍGITO_CONTROL_NIF,
-                                         FILA_NÚMEROS);
-        return dígitoControl(NIF) == dígitoControlNIF;
-    }
-
-    private boolean fechaNacimientoVálida() {
-        for (int i = 0; i < fechaNacimiento.length; i++)
-            fechaNacimiento[i] =
-                valorCarácter(i + COLUMNA_FECHA_NACIMIENTO, FILA_FECHAS);
-        dígitoControlFechaNacimiento =
-            valorCarácter(COLUMNA_DÍGITO_CONTROL_FECHA_NACIMIENTO,
-                          FILA_FECHAS);
-        return dígitoControl(fechaNacimiento) == dígitoControlFechaNacimiento;
-    }
-
-    private boolean fechaCaducidadVálida() {
-        for (int i = 0; i < fechaCaducidad.length; i++)
-            fechaCaducidad[i] =
-                valorCarácter(i + COLUMNA_FECHA_CADUCIDAD, FILA_FECHAS);
-        dígitoControlFechaCaducidad =
-            valorCarácter(COLUMNA_DÍGITO_CONTROL_FECHA_CADUCIDAD,
-                          FILA_FECHAS);
-        return dígitoControl(fechaCaducidad) == dígitoControlFechaCaducidad;
-    }
-
-    private boolean datosLeídosCorrectamente() {
-        return númeroDNIVálido() && fechaNacimientoVálida()
-               && fechaCaducidadVálida()
-               && ((formato != FORMATO_DNI && códigoSoporteVálido())
-                   || (formato == FORMATO_DNI && NIFVálido()));
-    }
-
-    private char calculaDígito() {
-        int i = 0;
-        if (formato != FORMATO_DNI) {
-            for (char c : númeroSoporte)
-                datosDNIE[i++] = c;
-            datosDNIE[i++] = dígitoControlCódigoSoporte;
-            for (char c : númeroDNI)
-                datosDNIE[i++] = c;
-            datosDNIE[i++] = letraNúmeroDNI;
-            for (char c : fechaNacimiento)
-                datosDNIE[i++] = c;
-            datosDNIE[i++] = dígitoControlFechaNacimiento;
-            for (char c : fechaCaducidad)
-                datosDNIE[i++] = c;
-            datosDNIE[i++] = dígitoControlFechaCaducidad;
-            return dígitoControl(datosDNIE);
-        }
-        for (char c : NIF)
-            datosDNI[i++] = c;
-        datosDNI[i++] = dígitoControlNIF;
-        for (char c : fechaNacimiento)
-            datosDNI[i++] = c;
-        datosDNI[i++] = dígitoControlFechaNacimiento;
-        for (char c : fechaCaducidad)
-            datosDNI[i++] = c;
-        datosDNI[i++] = dígitoControlFechaCaducidad;
-        return dígitoControl(datosDNI);
-    }
-
-    public boolean esCarácterSignificativo(int columna, int fila) {
-        return (fila == FILA_NÚMEROS && columna >= COLUMNA_NÚMEROS
-                && ((formato == FORMATO_DNIE
-                        && columna < COLUMNA_FINAL_NIF_DNIE)
-                    || (formato == FORMATO_DNI
-                        && columna <= COLUMNA_DÍGITO_CONTROL_NIF)))
-               || (fila == FILA_FECHAS
-                   && ((columna >= COLUMNA_FECHA_NACIMIENTO
-                        && columna <= COLUMNA_DÍGITO_CONTROL_FECHA_NACIMIENTO)
-                       || (columna >= COLUMNA_FECHA_CADUCIDAD
-                           && columna
-                              <= COLUMNA_DÍGITO_CONTROL_FECHA_CADUCIDAD)));
-    }
-
-    public boolean encontrar(byte[] píxeles) {
-        this.píxeles = píxeles;
-        columnas = null;
-        dígito = '?';
-        if ((filas = encuentraFilas()) != null) {
-            if ((columnas = encuentraColumnas()) != null) {
-                if ('<' == valorCarácter(COLUMNA_ÚLTIMO_DÍGITO_DNIE,
-                                         FILA_NÚMEROS, DÍGITOS_O_NULO))
-                    formato = FORMATO_DNI;
-                else 
-                    formato = FORMATO_DNIE;
-                if (datosLeídosCorrectamente()) {
-                    dígito = calculaDígito();
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
-    public int getAnchoImagen() {
-        return anchoImagen;
-    }
-
-    public int getAltoImagen() {
-        return altoImagen;
-    }
-
-    public int getXInicioImagen() {
-        return xInicioImagen;
-    }
-
-    public int getYInicioImagen() {
-        return yInicioImagen;
-    }
-
-    public int getAnchoUsadoImagen() {
-        return anchoUsadoImagen;
-    }
-
-    public int getAltoUsadoImagen() {
-        return altoUsadoImagen;
-    }
-
-    public Segmento[] getColumnas() {
-        return columnas;
-    }
-
-    public Segmento[] getFilas() {
-        return filas;
-    }
-
-    public char getDígito() {
-        return dígito;
+        if (mostrarMétricas)
+            dibujarMétricas(canvas);
+        datosOCR.getMétricas().registrar(Métricas.DIBUJO, inicio);
     }
 }
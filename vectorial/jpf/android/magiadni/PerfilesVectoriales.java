@@ -0,0 +1,108 @@
+//  MagiaDNI - Calcular dígito de control de los datos OCR del DNI
+//  Copyright © 2011-2017  Josep Portella Florit <hola@josep-portella.com>
+//
+//  This program is free software: you can redistribute it and/or modify
+//  it under the terms of the GNU General Public License as published by
+//  the Free Software Foundation, either version 3 of the License, or
+//  (at your option) any later version.
+//
+//  This program is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU General Public License for more details.
+//
+//  You should have received a copy of the GNU General Public License
+//  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+package jpf.android.magiadni;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class PerfilesVectoriales extends Perfiles {
+    private static final VectorSpecies<Byte> BYTES =
+        ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> ENTEROS =
+        IntVector.SPECIES_PREFERRED;
+    private static final int PARTES = BYTES.length() / ENTEROS.length();
+    private static final byte SIGNO = (byte) 0x80;
+
+    private static IntVector sumar(IntVector total, ByteVector v) {
+        for (int parte = 0; parte < PARTES; parte++)
+            total = total.add(v.convertShape(VectorOperators.B2I, ENTEROS,
+                                             parte)
+                               .reinterpretAsInts()
+                               .and(0xff));
+        return total;
+    }
+
+    private static ByteVector acotar(ByteVector extremos, ByteVector v,
+                                     boolean mínimo) {
+        extremos = extremos.lanewise(VectorOperators.XOR, SIGNO);
+        extremos = mínimo ? extremos.min(v) : extremos.max(v);
+        return extremos.lanewise(VectorOperators.XOR, SIGNO);
+    }
+
+    public int sumar(byte[] datos, int inicio, int longitud) {
+        int fin = BYTES.loopBound(longitud);
+        IntVector total = IntVector.zero(ENTEROS);
+        int i = 0;
+        for (; i < fin; i += BYTES.length())
+            total = sumar(total,
+                          ByteVector.fromArray(BYTES, datos, inicio + i));
+        return total.reduceLanes(VectorOperators.ADD)
+               + super.sumar(datos, inicio + i, longitud - i);
+    }
+
+    public int sumar(ByteBuffer datos, int inicio, int paso, int longitud) {
+        if (paso != 1)
+            return super.sumar(datos, inicio, paso, longitud);
+        int fin = BYTES.loopBound(longitud);
+        IntVector total = IntVector.zero(ENTEROS);
+        int i = 0;
+        for (; i < fin; i += BYTES.length())
+            total = sumar(total,
+                          ByteVector.fromByteBuffer(BYTES, datos, inicio + i,
+                                                    ByteOrder.nativeOrder()));
+        return total.reduceLanes(VectorOperators.ADD)
+               + super.sumar(datos, inicio + i, paso, longitud - i);
+    }
+
+    public void acumularExtremos(byte[] datos, int inicio, byte[] mínimos,
+                                 byte[] máximos, int desde, int longitud) {
+        int fin = BYTES.loopBound(longitud);
+        int i = 0;
+        for (; i < fin; i += BYTES.length()) {
+            ByteVector v = ByteVector.fromArray(BYTES, datos, inicio + i)
+                                     .lanewise(VectorOperators.XOR, SIGNO);
+            acotar(ByteVector.fromArray(BYTES, mínimos, desde + i), v, true)
+                .intoArray(mínimos, desde + i);
+            acotar(ByteVector.fromArray(BYTES, máximos, desde + i), v, false)
+                .intoArray(máximos, desde + i);
+        }
+        super.acumularExtremos(datos, inicio + i, mínimos, máximos,
+                               desde + i, longitud - i);
+    }
+
+    public void acumularExtremos(ByteBuffer datos, int inicio, int paso,
+                                 byte[] mínimos, byte[] máximos,
+                                 int desde, int longitud) {
+        int fin = paso == 1 ? BYTES.loopBound(longitud) : 0;
+        int i = 0;
+        for (; i < fin; i += BYTES.length()) {
+            ByteVector v = ByteVector.fromByteBuffer(BYTES, datos, inicio + i,
+                                                     ByteOrder.nativeOrder())
+                                     .lanewise(VectorOperators.XOR, SIGNO);
+            acotar(ByteVector.fromArray(BYTES, mínimos, desde + i), v, true)
+                .intoArray(mínimos, desde + i);
+            acotar(ByteVector.fromArray(BYTES, máximos, desde + i), v, false)
+                .intoArray(máximos, desde + i);
+        }
+        super.acumularExtremos(datos, inicio + paso * i, paso, mínimos,
+                               máximos, desde + i, longitud - i);
+    }
+}